@@ -2,27 +2,50 @@ package src.datastructures;
 
 import src.InventoryItem;
 import java.io.Serializable;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.function.Consumer;
 
 /**
  * Binary Search Tree implementation specifically for storing inventory items
  * Uses itemId as the key for ordering
+ * The tree is kept balanced as an AVL tree: the heights of the two subtrees
+ * of every node differ by at most one, so add, remove and find are O(log n)
+ * even when items arrive in ascending ID order (as they do when loading a file)
+ * All operations are iterative, so the thread stack size never limits the tree size
+ * A secondary NameIndex makes name lookups O(1) on average
+ * Category and supplier values are canonicalized through a StringDictionary,
+ * so every item with the same category or supplier shares one String
  */
-public class BinarySearchTree implements Serializable {
+public class BinarySearchTree implements Iterable<InventoryItem>, Serializable {
     private static final long serialVersionUID = 1L;
 
+    // An AVL tree holding Integer.MAX_VALUE nodes is at most 45 levels high
+    private static final int MAX_HEIGHT = 64;
+
     private Node root;
     private int size;
+    // Secondary index on the case-folded item name
+    private final NameIndex names = new NameIndex();
+    // Canonical category and supplier values
+    private final StringDictionary dictionary = new StringDictionary();
+    // Counts structural changes so iterators can fail fast
+    private transient int modCount;
+    // Scratch array for the root-to-node path of add and remove
+    private transient Node[] path;
 
     private class Node {
         InventoryItem data;
         Node left;
         Node right;
+        int height;
 
         Node(InventoryItem data) {
             this.data = data;
             this.left = null;
             this.right = null;
+            this.height = 1;
         }
     }
 
@@ -35,39 +58,205 @@ public class BinarySearchTree implements Serializable {
     }
 
     /**
-     * Adds an item to the BST
+     * Builds a balanced tree from items sorted by strictly ascending ID in O(n)
+     * The middle item of every range becomes the root of its subtree, which is
+     * cheaper than n individual adds and gives the lowest possible height
+     * @param sortedItems The items in ascending ID order, without duplicates
+     * @return The tree
+     * @throws IllegalArgumentException If the items are not strictly ascending
+     */
+    public static BinarySearchTree fromSorted(CustomArrayList<InventoryItem> sortedItems) {
+        for (int i = 1; i < sortedItems.size(); i++) {
+            if (sortedItems.get(i - 1).getItemId() >= sortedItems.get(i).getItemId()) {
+                throw new IllegalArgumentException("Items are not in ascending ID order at index " + i);
+            }
+        }
+
+        BinarySearchTree tree = new BinarySearchTree();
+        tree.root = tree.buildBalanced(sortedItems, 0, sortedItems.size() - 1);
+        tree.size = sortedItems.size();
+        return tree;
+    }
+
+    // Recursion depth is log2(n), so this is safe for any size
+    private Node buildBalanced(CustomArrayList<InventoryItem> sortedItems, int low, int high) {
+        if (low > high) {
+            return null;
+        }
+        int mid = (low + high) >>> 1;
+        Node node = new Node(sortedItems.get(mid));
+        canonicalize(node.data);
+        names.add(node.data);
+        node.left = buildBalanced(sortedItems, low, mid - 1);
+        node.right = buildBalanced(sortedItems, mid + 1, high);
+        updateHeight(node);
+        return node;
+    }
+
+    /**
+     * Builds a balanced tree in O(n) from items arriving in ascending ID order,
+     * without knowing their number in advance, e.g. while parsing a file
+     * The items seen so far are kept as perfect subtrees of distinct heights,
+     * like the digits of a binary counter: each item either waits as the root
+     * of the next subtree or joins two equal subtrees into one of twice the
+     * size. build() joins the remaining subtrees, rebalancing along the way,
+     * so the result is a valid AVL tree.
+     */
+    public static class Builder {
+        private final BinarySearchTree tree = new BinarySearchTree();
+        // subtrees[k] is a perfect subtree of height k, or null; roots[k] is the item after it
+        private final Node[] subtrees = new Node[MAX_HEIGHT];
+        private final Node[] roots = new Node[MAX_HEIGHT];
+        private boolean hasLast;
+        private int lastId;
+        private boolean built;
+
+        /**
+         * Appends an item
+         * @param item The item, with an ID above that of every item added before
+         * @return false, without adding the item, if its ID is not above the last one
+         */
+        public boolean add(InventoryItem item) {
+            if (built) {
+                throw new IllegalStateException("Tree already built");
+            }
+            if (hasLast && item.getItemId() <= lastId) {
+                return false;
+            }
+            hasLast = true;
+            lastId = item.getItemId();
+
+            tree.canonicalize(item);
+            tree.names.add(item);
+            tree.size++;
+
+            // Carry equal subtrees upwards, as when incrementing a binary counter
+            Node carry = null;
+            int k = 0;
+            while (roots[k] != null) {
+                Node root = roots[k];
+                root.left = subtrees[k];
+                root.right = carry;
+                root.height = k + 1;
+                carry = root;
+                roots[k] = null;
+                subtrees[k] = null;
+                k++;
+            }
+            subtrees[k] = carry;
+            roots[k] = tree.new Node(item);
+            return true;
+        }
+
+        /**
+         * Returns the number of items added
+         * @return The count
+         */
+        public int size() {
+            return tree.size;
+        }
+
+        /**
+         * Returns the dictionary of the tree being built, e.g. to parse values straight into it
+         * @return The dictionary
+         */
+        public StringDictionary getDictionary() {
+            return tree.dictionary;
+        }
+
+        /**
+         * Finishes the tree
+         * @return The tree holding every added item
+         */
+        public BinarySearchTree build() {
+            if (!built) {
+                built = true;
+                // Lower digits hold the later items, so they form the right side
+                Node right = null;
+                for (int k = 0; k < MAX_HEIGHT; k++) {
+                    if (roots[k] != null) {
+                        right = tree.join(subtrees[k], roots[k], right);
+                        roots[k] = null;
+                        subtrees[k] = null;
+                    }
+                }
+                tree.root = right;
+            }
+            return tree;
+        }
+    }
+
+    /**
+     * Joins two AVL trees and a node whose ID lies between them
+     * Descends the taller tree until the heights match, so it costs
+     * O(|height(left) - height(right)|); the recursion is as deep
+     * @param left The tree of lower IDs, may be null
+     * @param middle The node to place between them
+     * @param right The tree of higher IDs, may be null
+     * @return The root of the joined tree
+     */
+    private Node join(Node left, Node middle, Node right) {
+        if (height(left) > height(right) + 1) {
+            left.right = join(left.right, middle, right);
+            return rebalance(left);
+        }
+        if (height(right) > height(left) + 1) {
+            right.left = join(left, middle, right.left);
+            return rebalance(right);
+        }
+        middle.left = left;
+        middle.right = right;
+        updateHeight(middle);
+        return middle;
+    }
+
+    /**
+     * Adds an item to the BST, replacing any item with the same ID
      * @param item The item to add
      */
     public void add(InventoryItem item) {
-        root = addRecursive(root, item);
-        size++;
-    }
+        canonicalize(item);
+        int itemId = item.getItemId();
+        Node[] path = pathBuffer();
+        int depth = 0;
 
-    private Node addRecursive(Node current, InventoryItem item) {
-        if (current == null) {
-            return new Node(item);
+        Node current = root;
+        while (current != null) {
+            int compareResult = Integer.compare(itemId, current.data.getItemId());
+            if (compareResult == 0) {
+                // Update existing item
+                unindexName(current.data);
+                current.data = item;
+                names.add(item);
+                return;
+            }
+            path[depth++] = current;
+            current = compareResult < 0 ? current.left : current.right;
         }
 
-        int compareResult = Integer.compare(item.getItemId(), current.data.getItemId());
-        if (compareResult < 0) {
-            current.left = addRecursive(current.left, item);
-        } else if (compareResult > 0) {
-            current.right = addRecursive(current.right, item);
+        Node node = new Node(item);
+        names.add(item);
+        if (depth == 0) {
+            root = node;
         } else {
-            // Update existing item
-            current.data = item;
-            size--; // Adjust size since we're replacing
+            Node parent = path[depth - 1];
+            if (itemId < parent.data.getItemId()) {
+                parent.left = node;
+            } else {
+                parent.right = node;
+            }
         }
-        return current;
+        size++;
+        modCount++;
+        retrace(path, depth);
     }
 
     /**
      * Removes an item by its ID
-     * @param itemId The ID of the item to remove
+     * @param key The ID of the item to remove, or the item itself
      * @return true if item was removed
      */
     public boolean remove(Object key) {
-        int initialSize = size;
         int itemId;
 
         if (key instanceof Integer) {
@@ -78,38 +267,188 @@ public class BinarySearchTree implements Serializable {
             return false;
         }
 
-        root = removeRecursive(root, itemId);
-        return size < initialSize;
+        return remove(itemId);
     }
 
-    private Node removeRecursive(Node current, int itemId) {
+    /**
+     * Removes an item by its ID
+     * @param itemId The ID of the item to remove
+     * @return true if item was removed
+     */
+    public boolean remove(int itemId) {
+        Node[] path = pathBuffer();
+        int depth = 0;
+
+        Node current = root;
+        while (current != null) {
+            int compareResult = Integer.compare(itemId, current.data.getItemId());
+            if (compareResult == 0) {
+                break;
+            }
+            path[depth++] = current;
+            current = compareResult < 0 ? current.left : current.right;
+        }
         if (current == null) {
-            return null;
+            return false;
         }
+        InventoryItem removed = current.data;
 
-        int compareResult = Integer.compare(itemId, current.data.getItemId());
-        if (compareResult < 0) {
-            current.left = removeRecursive(current.left, itemId);
-        } else if (compareResult > 0) {
-            current.right = removeRecursive(current.right, itemId);
+        if (current.left != null && current.right != null) {
+            // Move the in-order successor's data here and unlink the successor instead
+            path[depth++] = current;
+            Node successor = current.right;
+            while (successor.left != null) {
+                path[depth++] = successor;
+                successor = successor.left;
+            }
+            current.data = successor.data;
+            current = successor;
+        }
+
+        // current now has at most one child, which takes its place
+        Node child = current.left != null ? current.left : current.right;
+        if (depth == 0) {
+            root = child;
         } else {
-            size--;
-            if (current.left == null) {
-                return current.right;
-            } else if (current.right == null) {
-                return current.left;
+            Node parent = path[depth - 1];
+            if (parent.left == current) {
+                parent.left = child;
             } else {
-                Node successor = findMin(current.right);
-                current.data = successor.data;
-                current.right = removeRecursive(current.right, successor.data.getItemId());
+                parent.right = child;
+            }
+        }
+        size--;
+        modCount++;
+        retrace(path, depth);
+        unindexName(removed);
+        return true;
+    }
+
+    /**
+     * Adds an item unless a different item already uses its name (ignoring case)
+     * Replacing the item with the same ID under the same or a new name is allowed
+     * @param item The item to add
+     * @return true if the item was added, false if its name is taken
+     */
+    public boolean addUnique(InventoryItem item) {
+        InventoryItem existing = names.get(item.getName());
+        if (existing != null && existing.getItemId() != item.getItemId()) {
+            return false;
+        }
+        add(item);
+        return true;
+    }
+
+    // Replaces the item's category and supplier with the shared instances of equal values
+    private void canonicalize(InventoryItem item) {
+        item.setCategory(dictionary.intern(item.getCategory()));
+        item.setSupplier(dictionary.intern(item.getSupplier()));
+    }
+
+    /**
+     * Returns the dictionary holding the canonical category and supplier values
+     * Loaders can intern values through it while parsing, so repeated values
+     * never become separate Strings
+     * @return The dictionary
+     */
+    public StringDictionary getDictionary() {
+        return dictionary;
+    }
+
+    // Drops an item from the name index, relinking the name if another item still carries it
+    private void unindexName(InventoryItem item) {
+        if (names.remove(item)) {
+            InventoryItem other = scanByName(item.getName(), item);
+            if (other != null) {
+                names.relink(other);
+            }
+        }
+    }
+
+    private Node[] pathBuffer() {
+        if (path == null) {
+            path = new Node[MAX_HEIGHT];
+        }
+        return path;
+    }
+
+    /**
+     * Rebalances the nodes on the path from the root to a changed node, bottom up
+     * Stops at the first subtree whose height did not change, as nothing above it is affected
+     * @param path The nodes visited from the root
+     * @param depth The number of nodes on the path
+     */
+    private void retrace(Node[] path, int depth) {
+        for (int i = depth - 1; i >= 0; i--) {
+            Node node = path[i];
+            path[i] = null;
+            int oldHeight = node.height;
+            Node balanced = rebalance(node);
+            if (i == 0) {
+                root = balanced;
+            } else if (balanced != node) {
+                Node parent = path[i - 1];
+                if (parent.left == node) {
+                    parent.left = balanced;
+                } else {
+                    parent.right = balanced;
+                }
+            }
+            if (balanced.height == oldHeight) {
+                // Clear the rest of the path so the scratch array holds no stale nodes
+                for (int j = i - 1; j >= 0; j--) {
+                    path[j] = null;
+                }
+                break;
             }
         }
-        return current;
     }
 
-    private Node findMin(Node node) {
-        while (node.left != null) {
-            node = node.left;
+    private int height(Node node) {
+        return node == null ? 0 : node.height;
+    }
+
+    private void updateHeight(Node node) {
+        node.height = 1 + Math.max(height(node.left), height(node.right));
+    }
+
+    private Node rotateLeft(Node node) {
+        Node pivot = node.right;
+        node.right = pivot.left;
+        pivot.left = node;
+        updateHeight(node);
+        updateHeight(pivot);
+        return pivot;
+    }
+
+    private Node rotateRight(Node node) {
+        Node pivot = node.left;
+        node.left = pivot.right;
+        pivot.right = node;
+        updateHeight(node);
+        updateHeight(pivot);
+        return pivot;
+    }
+
+    /**
+     * Restores the AVL property at a node whose subtrees changed height by at most one
+     * @param node The node to rebalance
+     * @return The new root of the subtree
+     */
+    private Node rebalance(Node node) {
+        updateHeight(node);
+        int balance = height(node.left) - height(node.right);
+        if (balance > 1) {
+            if (height(node.left.left) < height(node.left.right)) {
+                node.left = rotateLeft(node.left);
+            }
+            return rotateRight(node);
+        }
+        if (balance < -1) {
+            if (height(node.right.right) < height(node.right.left)) {
+                node.right = rotateRight(node.right);
+            }
+            return rotateLeft(node);
         }
         return node;
     }
@@ -120,7 +459,15 @@ public class BinarySearchTree implements Serializable {
      * @return The item if found, null otherwise
      */
     public InventoryItem find(int itemId) {
-        return findRecursive(root, itemId);
+        Node current = root;
+        while (current != null) {
+            int currentId = current.data.getItemId();
+            if (itemId == currentId) {
+                return current.data;
+            }
+            current = itemId < currentId ? current.left : current.right;
+        }
+        return null;
     }
 
     public InventoryItem find(Object key) {
@@ -134,51 +481,62 @@ public class BinarySearchTree implements Serializable {
             return null;
         }
 
-        return findRecursive(root, itemId);
+        return find(itemId);
     }
 
-    private InventoryItem findRecursive(Node current, int itemId) {
+    /**
+     * Finds the item with the highest ID
+     * @return The item, or null if the tree is empty
+     */
+    public InventoryItem findMax() {
+        Node current = root;
         if (current == null) {
             return null;
         }
-
-        int compareResult = Integer.compare(itemId, current.data.getItemId());
-        if (compareResult == 0) {
-            return current.data;
-        } else if (compareResult < 0) {
-            return findRecursive(current.left, itemId);
-        } else {
-            return findRecursive(current.right, itemId);
+        while (current.right != null) {
+            current = current.right;
         }
+        return current.data;
     }
 
     /**
-     * Checks if an item with the given name exists
+     * Checks if an item with the given name exists, ignoring case
      * @param name The name to search for
      * @return The item if found, null otherwise
      */
     public InventoryItem findByName(String name) {
-        return findByNameRecursive(root, name);
+        return names.get(name);
     }
 
-    private InventoryItem findByNameRecursive(Node current, String name) {
-        if (current == null) {
+    /**
+     * Scans the whole tree for an item with the given name
+     * Only needed when items share a name and the indexed one is removed
+     * @param name The name to search for
+     * @param excluded An item to skip
+     * @return The item if found, null otherwise
+     */
+    private InventoryItem scanByName(String name, InventoryItem excluded) {
+        if (root == null) {
             return null;
         }
 
-        // Check current node
-        if (current.data.getName().equalsIgnoreCase(name)) {
-            return current.data;
-        }
-
-        // Check left subtree
-        InventoryItem leftResult = findByNameRecursive(current.left, name);
-        if (leftResult != null) {
-            return leftResult;
+        // Pre-order scan with an explicit stack
+        Node[] stack = new Node[root.height + 1];
+        int top = 0;
+        stack[top++] = root;
+        while (top > 0) {
+            Node current = stack[--top];
+            if (current.data != excluded && current.data.getName().equalsIgnoreCase(name)) {
+                return current.data;
+            }
+            if (current.right != null) {
+                stack[top++] = current.right;
+            }
+            if (current.left != null) {
+                stack[top++] = current.left;
+            }
         }
-
-        // Check right subtree
-        return findByNameRecursive(current.right, name);
+        return null;
     }
 
     /**
@@ -186,14 +544,66 @@ public class BinarySearchTree implements Serializable {
      * @param consumer The consumer to process each item
      */
     public void inOrderTraversal(Consumer<InventoryItem> consumer) {
-        inOrderTraversalRecursive(root, consumer);
-    }
+        if (root == null) {
+            return;
+        }
 
-    private void inOrderTraversalRecursive(Node current, Consumer<InventoryItem> consumer) {
-        if (current != null) {
-            inOrderTraversalRecursive(current.left, consumer);
+        Node[] stack = new Node[root.height];
+        int top = 0;
+        Node current = root;
+        while (current != null || top > 0) {
+            while (current != null) {
+                stack[top++] = current;
+                current = current.left;
+            }
+            current = stack[--top];
             consumer.accept(current.data);
-            inOrderTraversalRecursive(current.right, consumer);
+            current = current.right;
+        }
+    }
+
+    /**
+     * Returns an iterator over the items in ascending ID order
+     * The iterator fails fast if items are added or removed while iterating
+     * @return The iterator
+     */
+    @Override
+    public Iterator<InventoryItem> iterator() {
+        return new InOrderIterator();
+    }
+
+    private class InOrderIterator implements Iterator<InventoryItem> {
+        private final Node[] stack = new Node[height(root)];
+        private int top;
+        private final int expectedModCount = modCount;
+
+        InOrderIterator() {
+            pushLeft(root);
+        }
+
+        private void pushLeft(Node node) {
+            while (node != null) {
+                stack[top++] = node;
+                node = node.left;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return top > 0;
+        }
+
+        @Override
+        public InventoryItem next() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (top == 0) {
+                throw new NoSuchElementException();
+            }
+            Node current = stack[--top];
+            pushLeft(current.right);
+            return current.data;
         }
     }
 
@@ -205,6 +615,14 @@ public class BinarySearchTree implements Serializable {
         return size;
     }
 
+    /**
+     * Returns the height of the tree, 0 for an empty tree
+     * @return The number of nodes on the longest root-to-leaf path
+     */
+    public int height() {
+        return height(root);
+    }
+
     /**
      * Checks if the BST is empty
      * @return true if empty
@@ -219,5 +637,8 @@ public class BinarySearchTree implements Serializable {
     public void clear() {
         root = null;
         size = 0;
+        names.clear();
+        dictionary.clear();
+        modCount++;
     }
 }
@@ -0,0 +1,614 @@
+package src;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Checksum;
+import src.datastructures.BinarySearchTree;
+import src.datastructures.CustomArrayList;
+import src.datastructures.StringDictionary;
+
+/**
+ * Compact binary snapshot of all inventory items
+ * Layout (big-endian):
+ *   header:  magic "INVB" (int), version (int), record count (int),
+ *            max item ID (int), dictionary length in bytes (int),
+ *            CRC32C of the preceding header fields and the dictionary (int)
+ *   dictionary: the distinct category and supplier values: the number of
+ *            entries (varint), then each value as a string
+ *   records: one per item in ascending ID order: the record length (int),
+ *            then itemId (int), quantity (int), price (double), name (string),
+ *            category and supplier as dictionary codes (varint), then a
+ *            CRC32C of the length and the fields (int)
+ * A string is its byte length (varint) followed by that many UTF-8 bytes.
+ * Varints are unsigned, 7 bits per byte with the low bits first, so short
+ * strings and the first 128 dictionary codes cost a single byte.
+ * Every record carries its own checksum, like the rows of the CSV snapshot,
+ * so a corrupt record is reported and skipped and the others still load;
+ * the reader then looks for the next record whose length and checksum
+ * match. Every record needs the dictionary, so a corrupt header or
+ * dictionary fails the whole file.
+ * Version 3 and 2 files, with one checksum over the whole body (CRC32C and
+ * CRC32 respectively), and version 1 files, which store category and
+ * supplier inline as strings and have no dictionary, are still read.
+ * Numbers are stored in fixed width, so loading needs no text parsing.
+ */
+public class BinarySnapshot {
+
+    private static final int MAGIC = 0x494E5642; // "INVB"
+    private static final int VERSION = 4;
+    private static final int VERSION_CRC32 = 2;
+    private static final int VERSION_INLINE_STRINGS = 1;
+    // Every version has the same header size; before version 4 the last 8 bytes are the body checksum
+    private static final int HEADER_SIZE = 4 + 4 + 4 + 4 + 4 + 4;
+    // Header bytes covered by the header checksum
+    private static final int HEADER_CHECKED_SIZE = HEADER_SIZE - 4;
+    // The length before a record and the checksum after it
+    private static final int FRAME_OVERHEAD = 4 + 4;
+    // Two ints, a double and three one-byte varints
+    private static final int MIN_RECORD_SIZE = 4 + 4 + 8 + 1 + 1 + 1;
+
+    /**
+     * Writes all items to a snapshot file, replacing its contents
+     * @param file The file to write
+     * @param items The items to write
+     * @throws IOException If writing fails
+     */
+    public static void write(File file, BinarySearchTree items) throws IOException {
+        // A fresh dictionary holds only values still in use
+        StringDictionary dictionary = new StringDictionary();
+        for (InventoryItem item : items) {
+            dictionary.add(nonNull(item.getCategory()));
+            dictionary.add(nonNull(item.getSupplier()));
+        }
+        ByteArrayOutputStream dictionaryBytes = new ByteArrayOutputStream();
+        DataOutputStream dictionaryOut = new DataOutputStream(dictionaryBytes);
+        writeVarint(dictionaryOut, dictionary.size());
+        for (int code = 0; code < dictionary.size(); code++) {
+            writeString(dictionaryOut, dictionary.get(code));
+        }
+
+        InventoryItem highest = items.findMax();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(items.size())
+                .putInt(highest == null ? 0 : highest.getItemId()).putInt(dictionaryBytes.size());
+        CRC32C crc = new CRC32C();
+        crc.update(header.array(), 0, HEADER_CHECKED_SIZE);
+        crc.update(dictionaryBytes.toByteArray());
+        header.putInt((int) crc.getValue());
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file), 64 * 1024))) {
+            out.write(header.array());
+            dictionaryBytes.writeTo(out);
+
+            // Each record is assembled in a reused buffer, as its length precedes it
+            RecordBuffer record = new RecordBuffer();
+            DataOutputStream recordOut = new DataOutputStream(record);
+            for (InventoryItem item : items) {
+                record.reset();
+                recordOut.writeInt(0);
+                recordOut.writeInt(item.getItemId());
+                recordOut.writeInt(item.getQuantity());
+                recordOut.writeDouble(item.getPrice());
+                writeString(recordOut, item.getName());
+                writeVarint(recordOut, dictionary.codeOf(nonNull(item.getCategory())));
+                writeVarint(recordOut, dictionary.codeOf(nonNull(item.getSupplier())));
+                record.setLength();
+
+                crc.reset();
+                crc.update(record.array(), 0, record.size());
+                out.write(record.array(), 0, record.size());
+                out.writeInt((int) crc.getValue());
+            }
+        }
+    }
+
+    // Growable buffer for one record whose bytes are written without copying
+    private static class RecordBuffer extends ByteArrayOutputStream {
+        byte[] array() {
+            return buf;
+        }
+
+        // Fills in the length written as a placeholder at the start
+        void setLength() {
+            ByteBuffer.wrap(buf).putInt(0, count - 4);
+        }
+    }
+
+    private static String nonNull(String value) {
+        return value == null ? "" : value;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = nonNull(value).getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeVarint(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /**
+     * Reads all items from a snapshot file
+     * @param file The file to read
+     * Corrupt records are reported and skipped
+     * @return The items
+     * @throws IOException If the file cannot be read, is not a snapshot, or its header or
+     *                     dictionary fails its checksum, or for files before version 4, any checksum
+     */
+    public static BinarySearchTree read(File file) throws IOException {
+        ByteBuffer buffer = readFully(file);
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+            throw new IOException("Not an inventory snapshot: " + file.getPath());
+        }
+        int version = buffer.getInt();
+        if (version < VERSION_INLINE_STRINGS || version > VERSION) {
+            throw new IOException("Unsupported snapshot version " + version + ": " + file.getPath());
+        }
+        int count = buffer.getInt();
+        int maxId = buffer.getInt();
+        if (version == VERSION) {
+            return readRecords(file, buffer, count);
+        }
+        long checksum = buffer.getLong();
+
+        Checksum crc = newChecksum(version);
+        crc.update(buffer.duplicate());
+        if (crc.getValue() != checksum) {
+            throw new IOException("Snapshot checksum mismatch: " + file.getPath());
+        }
+
+        CustomArrayList<InventoryItem> items = new CustomArrayList<>(count);
+        try {
+            // Decoded once, so every item shares the dictionary's String instances
+            String[] dictionary = null;
+            if (version != VERSION_INLINE_STRINGS) {
+                dictionary = new String[readVarint(buffer)];
+                for (int code = 0; code < dictionary.length; code++) {
+                    dictionary[code] = readString(buffer);
+                }
+            }
+
+            for (int i = 0; i < count; i++) {
+                int itemId = buffer.getInt();
+                int quantity = buffer.getInt();
+                double price = buffer.getDouble();
+                String name = readString(buffer);
+                String category;
+                String supplier;
+                if (dictionary != null) {
+                    category = dictionary[readVarint(buffer)];
+                    supplier = dictionary[readVarint(buffer)];
+                } else {
+                    category = readString(buffer);
+                    supplier = readString(buffer);
+                }
+                items.add(new InventoryItem(itemId, name, category, quantity, price, supplier));
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt snapshot " + file.getPath() + ": " + e.getMessage(), e);
+        }
+        if (count > 0 && items.get(count - 1).getItemId() != maxId) {
+            throw new IOException("Snapshot header does not match its records: " + file.getPath());
+        }
+
+        // Records are written in ID order, so the tree is built in one pass
+        return BinarySearchTree.fromSorted(items);
+    }
+
+    // Reads a version 4 file, positioned after the max item ID
+    private static BinarySearchTree readRecords(File file, ByteBuffer buffer, int count) throws IOException {
+        int dictionaryLength = buffer.getInt();
+        int checksum = buffer.getInt();
+        if (dictionaryLength < 0 || dictionaryLength > buffer.remaining()) {
+            throw new IOException("Corrupt snapshot header: " + file.getPath());
+        }
+        byte[] dictionaryBytes = new byte[dictionaryLength];
+        buffer.get(dictionaryBytes);
+        String[] dictionary = readDictionary(file, buffer.array(), dictionaryBytes, checksum);
+
+        CustomArrayList<InventoryItem> items = new CustomArrayList<>(count);
+        CRC32C crc = new CRC32C();
+        int lastId = 0;
+        boolean skipping = false;
+        int at = buffer.position();
+        while (at < buffer.limit()) {
+            InventoryItem item = decodeRecord(buffer, at, buffer.limit(), dictionary, lastId, crc);
+            if (item != null) {
+                items.add(item);
+                lastId = item.getItemId();
+                at += FRAME_OVERHEAD + buffer.getInt(at);
+                skipping = false;
+            } else {
+                if (!skipping) {
+                    reportCorrupt(file, at);
+                    skipping = true;
+                }
+                // Look for the next record one byte further on
+                at++;
+            }
+        }
+        reportMissing(file, items.size(), count);
+
+        // Records are written in ID order, so the tree is built in one pass
+        return BinarySearchTree.fromSorted(items);
+    }
+
+    /**
+     * Verifies the header and dictionary of a version 4 file and decodes the dictionary
+     * @param file The file, for messages
+     * @param header The header, of which the fields before the checksum are verified
+     * @param bytes The encoded dictionary
+     * @param checksum The checksum from the header
+     * @return The dictionary values by code
+     * @throws IOException If the checksum does not match
+     */
+    private static String[] readDictionary(File file, byte[] header, byte[] bytes, int checksum) throws IOException {
+        CRC32C crc = new CRC32C();
+        crc.update(header, 0, HEADER_CHECKED_SIZE);
+        crc.update(bytes);
+        if ((int) crc.getValue() != checksum) {
+            throw new IOException("Snapshot header checksum mismatch: " + file.getPath());
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        try {
+            String[] dictionary = new String[readVarint(buffer)];
+            for (int code = 0; code < dictionary.length; code++) {
+                dictionary[code] = readString(buffer);
+            }
+            return dictionary;
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt snapshot dictionary " + file.getPath() + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Decodes the record at a position if its length and checksum are intact
+     * @param buffer The bytes holding the record
+     * @param at The position of the record's length
+     * @param end The end of the data in the buffer
+     * @param dictionary The dictionary values by code
+     * @param lastId The ID of the previous record, which this record's ID must exceed
+     * @param crc A checksum to reuse
+     * @return The item, or null if no intact record starts at the position
+     */
+    private static InventoryItem decodeRecord(ByteBuffer buffer, int at, int end, String[] dictionary,
+                                              int lastId, CRC32C crc) {
+        if (end - at < FRAME_OVERHEAD + MIN_RECORD_SIZE) {
+            return null;
+        }
+        int length = buffer.getInt(at);
+        if (length < MIN_RECORD_SIZE || length > end - at - FRAME_OVERHEAD) {
+            return null;
+        }
+        crc.reset();
+        crc.update(buffer.array(), buffer.arrayOffset() + at, 4 + length);
+        if ((int) crc.getValue() != buffer.getInt(at + 4 + length)) {
+            return null;
+        }
+
+        ByteBuffer record = ByteBuffer.wrap(buffer.array(), buffer.arrayOffset() + at + 4, length);
+        try {
+            int itemId = record.getInt();
+            int quantity = record.getInt();
+            double price = record.getDouble();
+            String name = readString(record);
+            String category = dictionary[readVarint(record)];
+            String supplier = dictionary[readVarint(record)];
+            // Only a false match while looking past a corrupt record gets here with bad fields
+            if (record.hasRemaining() || itemId <= lastId) {
+                return null;
+            }
+            return new InventoryItem(itemId, name, category, quantity, price, supplier);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static void reportCorrupt(File file, long position) {
+        System.out.println("Skipping corrupt snapshot record at byte " + position + " of " + file.getPath());
+    }
+
+    private static void reportMissing(File file, int read, int count) {
+        if (read != count) {
+            System.out.println("Read " + read + " of the " + count + " items in " + file.getPath());
+        }
+    }
+
+    /**
+     * Opens a cursor that reads the items of a snapshot file one at a time
+     * Corrupt records are reported and skipped, as in read. Before version 4
+     * the checksum covers the whole body, so it is verified once the last item
+     * has been read; a mismatch then surfaces as an UncheckedIOException
+     * @param file The file to read
+     * @return The cursor
+     * @throws IOException If the file cannot be opened, is not a snapshot, or its header
+     *                     or dictionary fails its checksum
+     */
+    public static ItemCursor openCursor(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            byte[] headerBytes = new byte[HEADER_SIZE];
+            new DataInputStream(in).readFully(headerBytes);
+            ByteBuffer header = ByteBuffer.wrap(headerBytes);
+            if (header.getInt() != MAGIC) {
+                throw new IOException("Not an inventory snapshot: " + file.getPath());
+            }
+            int version = header.getInt();
+            if (version < VERSION_INLINE_STRINGS || version > VERSION) {
+                throw new IOException("Unsupported snapshot version " + version + ": " + file.getPath());
+            }
+            int count = header.getInt();
+            int maxId = header.getInt();
+
+            if (version == VERSION) {
+                int dictionaryLength = header.getInt();
+                int checksum = header.getInt();
+                long length = in.getChannel().size();
+                if (dictionaryLength < 0 || dictionaryLength > length - HEADER_SIZE) {
+                    throw new IOException("Corrupt snapshot header: " + file.getPath());
+                }
+                DataInputStream body = new DataInputStream(new BufferedInputStream(in, 64 * 1024));
+                byte[] dictionaryBytes = new byte[dictionaryLength];
+                body.readFully(dictionaryBytes);
+                String[] dictionary = readDictionary(file, headerBytes, dictionaryBytes, checksum);
+                return new RecordCursor(file, body, dictionary, count, HEADER_SIZE + dictionaryLength, length);
+            }
+
+            long checksum = header.getLong();
+            Checksum crc = newChecksum(version);
+            DataInputStream body = new DataInputStream(new BufferedInputStream(new CheckedInputStream(in, crc), 64 * 1024));
+            String[] dictionary = null;
+            if (version != VERSION_INLINE_STRINGS) {
+                dictionary = new String[readVarint(body)];
+                for (int code = 0; code < dictionary.length; code++) {
+                    dictionary[code] = readString(body);
+                }
+            }
+            return new SnapshotCursor(file, body, dictionary, count, maxId, crc, checksum);
+        } catch (EOFException e) {
+            in.close();
+            throw new IOException("Truncated snapshot: " + file.getPath(), e);
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    // Cursor over a version 4 file, positioned after the dictionary
+    private static class RecordCursor extends ItemCursor.Lookahead {
+        private final File file;
+        private final DataInputStream body;
+        private final String[] dictionary;
+        private final int count;
+        private final long length;
+        private final CRC32C crc = new CRC32C();
+        // Holds the record being decoded, grown as needed
+        private byte[] frame = new byte[256];
+        private long position;
+        private int read;
+        private int lastId;
+        private boolean skipping;
+
+        RecordCursor(File file, DataInputStream body, String[] dictionary, int count, long position, long length) {
+            this.file = file;
+            this.body = body;
+            this.dictionary = dictionary;
+            this.count = count;
+            this.position = position;
+            this.length = length;
+        }
+
+        @Override
+        protected InventoryItem fetch() {
+            try {
+                while (position < length) {
+                    InventoryItem item = readRecord();
+                    if (item != null) {
+                        read++;
+                        lastId = item.getItemId();
+                        skipping = false;
+                        return item;
+                    }
+                    if (!skipping) {
+                        reportCorrupt(file, position);
+                        skipping = true;
+                    }
+                    // Look for the next record one byte further on
+                    body.readByte();
+                    position++;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(new IOException("Error reading snapshot " + file.getPath() + ": " + e.getMessage(), e));
+            }
+            reportMissing(file, read, count);
+            return null;
+        }
+
+        // Reads the record at the current position, or leaves the position as it was if none is intact there
+        private InventoryItem readRecord() throws IOException {
+            if (length - position < FRAME_OVERHEAD + MIN_RECORD_SIZE) {
+                return null;
+            }
+            body.mark(Integer.MAX_VALUE);
+            int recordLength = body.readInt();
+            if (recordLength >= MIN_RECORD_SIZE && recordLength <= length - position - FRAME_OVERHEAD) {
+                int size = FRAME_OVERHEAD + recordLength;
+                if (frame.length < size) {
+                    frame = new byte[Math.max(size, frame.length * 2)];
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(frame);
+                buffer.putInt(0, recordLength);
+                body.readFully(frame, 4, size - 4);
+                InventoryItem item = decodeRecord(buffer, 0, size, dictionary, lastId, crc);
+                if (item != null) {
+                    position += size;
+                    return item;
+                }
+            }
+            body.reset();
+            return null;
+        }
+
+        @Override
+        protected void release() {
+            try {
+                body.close();
+            } catch (IOException e) {
+                System.out.println("Error closing " + file.getPath() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static class SnapshotCursor extends ItemCursor.Lookahead {
+        private final File file;
+        private final DataInputStream body;
+        private final String[] dictionary;
+        private final int count;
+        private final int maxId;
+        private final Checksum crc;
+        private final long checksum;
+        private int read;
+        private int lastId;
+
+        SnapshotCursor(File file, DataInputStream body, String[] dictionary, int count, int maxId,
+                       Checksum crc, long checksum) {
+            this.file = file;
+            this.body = body;
+            this.dictionary = dictionary;
+            this.count = count;
+            this.maxId = maxId;
+            this.crc = crc;
+            this.checksum = checksum;
+        }
+
+        @Override
+        protected InventoryItem fetch() {
+            if (read == count) {
+                try {
+                    verify();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return null;
+            }
+            try {
+                int itemId = body.readInt();
+                int quantity = body.readInt();
+                double price = body.readDouble();
+                String name = readString(body);
+                String category;
+                String supplier;
+                if (dictionary != null) {
+                    category = dictionary[readVarint(body)];
+                    supplier = dictionary[readVarint(body)];
+                } else {
+                    category = readString(body);
+                    supplier = readString(body);
+                }
+                read++;
+                lastId = itemId;
+                return new InventoryItem(itemId, name, category, quantity, price, supplier);
+            } catch (IOException | RuntimeException e) {
+                throw new UncheckedIOException(new IOException("Corrupt snapshot " + file.getPath() + ": " + e.getMessage(), e));
+            }
+        }
+
+        private void verify() throws IOException {
+            if (body.read() != -1) {
+                throw new IOException("Snapshot has data after its last record: " + file.getPath());
+            }
+            if (crc.getValue() != checksum) {
+                throw new IOException("Snapshot checksum mismatch: " + file.getPath());
+            }
+            if (count > 0 && lastId != maxId) {
+                throw new IOException("Snapshot header does not match its records: " + file.getPath());
+            }
+        }
+
+        @Override
+        protected void release() {
+            try {
+                body.close();
+            } catch (IOException e) {
+                System.out.println("Error closing " + file.getPath() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // Files before version 3 are checksummed with CRC32
+    private static Checksum newChecksum(int version) {
+        return version > VERSION_CRC32 ? new CRC32C() : new CRC32();
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[readVarint(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int readVarint(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                if (value < 0) {
+                    break;
+                }
+                return value;
+            }
+        }
+        throw new IOException("Invalid string length");
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = readVarint(buffer);
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+                StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    private static int readVarint(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                if (value < 0) {
+                    break;
+                }
+                return value;
+            }
+        }
+        throw new IllegalStateException("Invalid string length");
+    }
+
+    private static ByteBuffer readFully(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot too large: " + file.getPath());
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) size).order(ByteOrder.BIG_ENDIAN);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // Keep reading until the buffer is full
+            }
+            buffer.flip();
+            return buffer;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package src;
+
+import java.io.File;
+import java.io.IOException;
+import src.datastructures.BinarySearchTree;
+
+/**
+ * Stores all items in a single binary snapshot (see BinarySnapshot)
+ * The snapshot loads without parsing text and is rewritten on every change.
+ */
+public class BinaryStorageEngine extends SnapshotStorageEngine {
+
+    /**
+     * Creates an engine storing inventory_data.bin in the given directory
+     * @param directory The data directory
+     */
+    public BinaryStorageEngine(String directory) {
+        super(directory);
+    }
+
+    @Override
+    protected File getSnapshotFile() {
+        return new File(getDirectory(), BINARY_FILE);
+    }
+
+    @Override
+    protected void writeSnapshot(File file, BinarySearchTree items) throws IOException {
+        BinarySnapshot.write(file, items);
+    }
+}
@@ -1,5 +1,8 @@
 package src;
 
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.util.List;
 import java.util.Scanner;
 
 /**
@@ -34,7 +37,7 @@ public class CLI {
         int choice;
         do {
             displayMenu();
-            choice = getValidIntInput("Enter your choice: ", 0, 5);
+            choice = getValidIntInput("Enter your choice: ", 0, 6);
 
             switch (choice) {
                 case 1:
@@ -52,7 +55,11 @@ public class CLI {
                 case 5:
                     manager.viewAllItems();
                     break;
+                case 6:
+                    importItems();
+                    break;
                 case 0:
+                    manager.checkpoint();
                     System.out.println("Exiting the program...");
                     break;
                 default:
@@ -71,6 +78,7 @@ public class CLI {
         System.out.println("3. Delete Item");
         System.out.println("4. Read Item");
         System.out.println("5. View All Items");
+        System.out.println("6. Import Items from CSV");
         System.out.println("0. Exit");
     }
 
@@ -196,7 +204,7 @@ public class CLI {
         }
 
         // Get the next available ID automatically
-        int id = FileManager.getNextAvailableId();
+        int id = manager.getNextAvailableId();
 
         String category = getValidStringInput("Enter Category: ", "Category");
         int quantity = getValidIntInput("Enter Quantity: ", 0, Integer.MAX_VALUE);
@@ -211,9 +219,39 @@ public class CLI {
         String supplier = getValidStringInput("Enter Supplier: ", "Supplier");
 
         InventoryItem item = new InventoryItem(id, name, category, quantity, price, supplier);
-        manager.createItem(item);
+        if (manager.createItem(item)) {
+            System.out.println("Item created with ID: " + item.getItemId() + " and saved successfully!");
+        } else {
+            System.out.println("Failed to create item. The name '" + name + "' may already be in use.");
+        }
+    }
 
-        System.out.println("Item created with ID: " + id + " and saved successfully!");
+    /**
+     * Imports items from a CSV file
+     */
+    public void importItems() {
+        String path = getValidStringInput("Enter CSV file path: ", "Path");
+        try {
+            printImportReport(manager.importItems(Paths.get(path)));
+        } catch (InvalidPathException e) {
+            System.out.println("Invalid path: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Prints the outcome of an import, listing the first rejected rows
+     * @param report The import report
+     */
+    public static void printImportReport(ImportReport report) {
+        System.out.println(report);
+        List<String> errors = report.getErrors();
+        int shown = Math.min(errors.size(), 20);
+        for (int i = 0; i < shown; i++) {
+            System.out.println("  " + errors.get(i));
+        }
+        if (report.getRejected() > shown) {
+            System.out.println("  ... and " + (report.getRejected() - shown) + " more rejected rows");
+        }
     }
 
     /**
@@ -0,0 +1,365 @@
+package src;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import src.datastructures.BinarySearchTree;
+import src.datastructures.CustomArrayList;
+import src.datastructures.StringDictionary;
+
+/**
+ * Bulk loader for inventory CSV files
+ * Large files are memory-mapped and tokenized straight from the mapping, so
+ * the data is never copied through read buffers or decoded as a whole.
+ * Very large files are additionally split into chunks that are parsed in
+ * parallel on the common ForkJoinPool. Small files, and files that cannot
+ * be mapped, are streamed instead.
+ *
+ * Files written by the storage engine end each row with a CRC32C of its
+ * fields, named "crc" in the header. Rows are verified as they are parsed,
+ * and a row that fails is reported as corrupt and skipped; files without the
+ * column, e.g. exports or files from older versions, are read unchecked.
+ */
+public class CSVLoader {
+
+    // Below this size mapping costs more than it saves, and keeping small files
+    // unmapped lets them be replaced freely on platforms that lock mapped files
+    private static final long MAP_THRESHOLD = 4 * 1024 * 1024;
+
+    // Below this size a single thread finishes before the chunks pay off
+    private static final long PARALLEL_THRESHOLD = 16 * 1024 * 1024;
+
+    // More chunks than threads evens out chunks that parse slower than others
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    /**
+     * Loads every item of a CSV file (with a header row)
+     * Malformed rows are reported and skipped
+     * @param file The CSV file
+     * @return The items
+     * @throws IOException If the file cannot be read
+     */
+    public static BinarySearchTree load(File file) throws IOException {
+        long size = file.length();
+        if (size >= MAP_THRESHOLD && size <= Integer.MAX_VALUE) {
+            MappedByteBuffer mapped = map(file);
+            if (mapped != null) {
+                int parallelism = ForkJoinPool.getCommonPoolParallelism();
+                if (parallelism > 1 && size >= PARALLEL_THRESHOLD) {
+                    BinarySearchTree items = loadParallel(mapped, parallelism * CHUNKS_PER_THREAD);
+                    if (items != null) {
+                        return items;
+                    }
+                }
+                return loadSequential(new CSVReader(mapped));
+            }
+        }
+        return loadSequential(new CSVReader(new FileInputStream(file)));
+    }
+
+    /**
+     * Parses a CSV file record by record
+     * Files written by FileManager are in ascending ID order, so the tree is
+     * built bottom-up in O(n) while parsing; from the first row out of order
+     * on, the remaining items are added one by one
+     * @param csv The tokenizer, closed when done
+     * @return The items
+     * @throws IOException If reading fails
+     */
+    private static BinarySearchTree loadSequential(CSVReader csv) throws IOException {
+        BinarySearchTree.Builder builder = new BinarySearchTree.Builder();
+        BinarySearchTree items = null;
+        try (csv) {
+            // Skip header
+            boolean checked = csv.readRecord() && hasChecksumColumn(csv);
+
+            while (csv.readRecord()) {
+                InventoryItem item = readRow(csv, checked, true, builder.getDictionary());
+                if (item == null) {
+                    continue;
+                }
+                if (items == null && !builder.add(item)) {
+                    items = builder.build();
+                }
+                if (items != null) {
+                    items.add(item);
+                }
+            }
+        }
+        return items == null ? builder.build() : items;
+    }
+
+    /**
+     * Parses a mapped CSV file in chunks on the common ForkJoinPool
+     * Chunk boundaries are moved to the end of a record: quotes are counted per
+     * chunk in parallel, and the parity of the quotes before a boundary tells
+     * whether it falls inside a quoted field. Each chunk's parse is then checked
+     * to end exactly on a record boundary; if one does not (e.g. a stray quote
+     * in an unquoted field threw the parity off) or a row is malformed, the
+     * method gives up so the sequential load can report rows by record number.
+     * @param mapped The whole file
+     * @param chunkCount The number of chunks to split the records into
+     * @return The items, or null if the file must be loaded sequentially instead
+     */
+    static BinarySearchTree loadParallel(ByteBuffer mapped, int chunkCount) {
+        int dataStart;
+        boolean checked;
+        try {
+            CSVReader header = new CSVReader(mapped.duplicate());
+            checked = header.readRecord() && hasChecksumColumn(header);
+            dataStart = header.getPosition();
+        } catch (IOException e) {
+            return null;
+        }
+        int dataEnd = mapped.limit();
+        if (dataEnd - dataStart < chunkCount) {
+            return null;
+        }
+
+        // Raw, unaligned split points
+        int[] splits = new int[chunkCount + 1];
+        for (int i = 0; i <= chunkCount; i++) {
+            splits[i] = dataStart + (int) ((long) (dataEnd - dataStart) * i / chunkCount);
+        }
+
+        // Count the quotes in each raw chunk
+        ForkJoinTask<?>[] countTasks = new ForkJoinTask<?>[chunkCount];
+        long[] quoteCounts = new long[chunkCount];
+        for (int i = 0; i < chunkCount; i++) {
+            final int chunk = i;
+            countTasks[i] = ForkJoinPool.commonPool().submit(() ->
+                    quoteCounts[chunk] = countQuotes(mapped, splits[chunk], splits[chunk + 1]));
+        }
+        for (ForkJoinTask<?> task : countTasks) {
+            task.join();
+        }
+
+        // Move each split point past the end of the record it falls in
+        int[] boundaries = new int[chunkCount + 1];
+        boundaries[0] = dataStart;
+        boundaries[chunkCount] = dataEnd;
+        long quotesBefore = 0;
+        for (int i = 1; i < chunkCount; i++) {
+            quotesBefore += quoteCounts[i - 1];
+            boundaries[i] = Math.max(boundaries[i - 1],
+                    nextRecordStart(mapped, splits[i], dataEnd, (quotesBefore & 1) == 1));
+        }
+
+        // Parse the chunks
+        List<ForkJoinTask<CustomArrayList<InventoryItem>>> parseTasks = new ArrayList<>(chunkCount);
+        for (int i = 0; i < chunkCount; i++) {
+            ByteBuffer slice = mapped.slice(boundaries[i], boundaries[i + 1] - boundaries[i]);
+            boolean lastChunk = i == chunkCount - 1;
+            parseTasks.add(ForkJoinPool.commonPool().submit(() -> parseChunk(slice, lastChunk, checked)));
+        }
+        CustomArrayList<CustomArrayList<InventoryItem>> chunks = new CustomArrayList<>(chunkCount);
+        for (ForkJoinTask<CustomArrayList<InventoryItem>> task : parseTasks) {
+            CustomArrayList<InventoryItem> chunk = task.join();
+            if (chunk == null) {
+                return null;
+            }
+            chunks.add(chunk);
+        }
+
+        return merge(chunks);
+    }
+
+    private static long countQuotes(ByteBuffer buffer, int start, int end) {
+        long count = 0;
+        for (int i = start; i < end; i++) {
+            if (buffer.get(i) == '"') {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // Returns the offset after the first line break at or after start that is outside quotes
+    private static int nextRecordStart(ByteBuffer buffer, int start, int end, boolean insideQuotes) {
+        for (int i = start; i < end; i++) {
+            byte c = buffer.get(i);
+            if (c == '"') {
+                insideQuotes = !insideQuotes;
+            } else if (c == '\n' && !insideQuotes) {
+                return i + 1;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Parses one chunk of records
+     * @param slice The chunk, starting at a record boundary
+     * @param lastChunk true if the chunk runs to the end of the file
+     * @param checked true if each row ends with a checksum to verify
+     * @return The items, or null if a row is malformed or corrupt, or the chunk did not end on a record boundary
+     */
+    private static CustomArrayList<InventoryItem> parseChunk(ByteBuffer slice, boolean lastChunk, boolean checked) {
+        CustomArrayList<InventoryItem> items = new CustomArrayList<>();
+        CSVReader csv = new CSVReader(slice);
+        // Per chunk, as dictionaries are not thread-safe; the tree merges them
+        StringDictionary dictionary = new StringDictionary();
+        try {
+            boolean terminated = true;
+            while (csv.readRecord()) {
+                terminated = csv.isTerminated();
+                InventoryItem item = readRow(csv, checked, false, dictionary);
+                if (item == null) {
+                    return null;
+                }
+                items.add(item);
+            }
+            if (csv.endedInsideQuotes() || (!terminated && !lastChunk)) {
+                return null;
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        return items;
+    }
+
+    /**
+     * Combines the chunk results in file order
+     * Files written by FileManager are in ascending ID order, so the tree is
+     * normally built in one linear pass; otherwise the items are added one by one
+     * @param chunks The items of each chunk
+     * @return The items
+     */
+    private static BinarySearchTree merge(CustomArrayList<CustomArrayList<InventoryItem>> chunks) {
+        int total = 0;
+        boolean sorted = true;
+        int previousId = Integer.MIN_VALUE;
+        boolean first = true;
+        for (CustomArrayList<InventoryItem> chunk : chunks) {
+            total += chunk.size();
+            for (int i = 0; i < chunk.size() && sorted; i++) {
+                int itemId = chunk.get(i).getItemId();
+                if (!first && itemId <= previousId) {
+                    sorted = false;
+                }
+                previousId = itemId;
+                first = false;
+            }
+        }
+
+        if (sorted) {
+            CustomArrayList<InventoryItem> all = new CustomArrayList<>(total);
+            for (CustomArrayList<InventoryItem> chunk : chunks) {
+                all.addAll(chunk);
+            }
+            return BinarySearchTree.fromSorted(all);
+        }
+
+        BinarySearchTree items = new BinarySearchTree();
+        for (CustomArrayList<InventoryItem> chunk : chunks) {
+            for (InventoryItem item : chunk) {
+                items.add(item);
+            }
+        }
+        return items;
+    }
+
+    /**
+     * Opens a cursor that parses the items of a CSV file (with a header row) one at a time
+     * Malformed rows are reported and skipped, as in load
+     * @param file The CSV file
+     * @return The cursor
+     * @throws IOException If the file cannot be opened
+     */
+    public static ItemCursor openCursor(File file) throws IOException {
+        CSVReader csv = open(file);
+        return new ItemCursor.Lookahead() {
+            private boolean headerSkipped;
+            private boolean checked;
+
+            @Override
+            protected InventoryItem fetch() {
+                try {
+                    if (!headerSkipped) {
+                        headerSkipped = true;
+                        checked = csv.readRecord() && hasChecksumColumn(csv);
+                    }
+                    while (csv.readRecord()) {
+                        InventoryItem item = readRow(csv, checked, true, null);
+                        if (item != null) {
+                            return item;
+                        }
+                    }
+                    return null;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @Override
+            protected void release() {
+                try {
+                    csv.close();
+                } catch (IOException e) {
+                    System.out.println("Error closing " + file.getPath() + ": " + e.getMessage());
+                }
+            }
+        };
+    }
+
+    // True if the header names the checksum column written by the storage engine
+    private static boolean hasChecksumColumn(CSVReader header) {
+        return header.getFieldCount() == 7 && header.getString(6).equals(FileManager.CHECKSUM_COLUMN);
+    }
+
+    /**
+     * Verifies the checksum of the current row, if the file has one, and parses the item
+     * @param csv The reader positioned on a row
+     * @param checked true if the row ends with a checksum
+     * @param report true to print why a row was rejected
+     * @param dictionary Dictionary to intern the category and supplier in, or null
+     * @return The item, or null if the row is corrupt or malformed
+     */
+    private static InventoryItem readRow(CSVReader csv, boolean checked, boolean report, StringDictionary dictionary) {
+        if (checked && (csv.getFieldCount() != 7 || !csv.hasValidChecksum())) {
+            if (report) {
+                System.out.println("Corrupt CSV record " + csv.getRecordNumber() + ": checksum mismatch");
+            }
+            return null;
+        }
+        return FileManager.readItem(csv, 0, report, dictionary);
+    }
+
+    /**
+     * Opens a tokenizer over a file, mapping it into memory when it is large
+     * @param file The file to read
+     * @return The tokenizer
+     * @throws IOException If the file cannot be opened
+     */
+    static CSVReader open(File file) throws IOException {
+        long size = file.length();
+        if (size >= MAP_THRESHOLD && size <= Integer.MAX_VALUE) {
+            MappedByteBuffer mapped = map(file);
+            if (mapped != null) {
+                return new CSVReader(mapped);
+            }
+        }
+        return new CSVReader(new FileInputStream(file));
+    }
+
+    /**
+     * Maps a file read-only
+     * @param file The file to map
+     * @return The mapping, or null if the file system does not support it
+     */
+    static MappedByteBuffer map(File file) {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            // The mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException | UnsupportedOperationException e) {
+            System.out.println("Could not map " + file.getPath() + ", streaming instead: " + e.getMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,472 @@
+package src;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32C;
+import src.datastructures.StringDictionary;
+
+/**
+ * Single-pass CSV tokenizer
+ * Reads UTF-8 bytes straight from a buffer and splits them into records and
+ * fields with a small state machine, without regular expressions or per-line
+ * Strings. Quoted fields may contain commas, doubled quotes and newlines,
+ * matching what FileManager.escapeCSV writes. Numeric fields are parsed in
+ * place; Strings are only created for text fields that are asked for.
+ * The delimiters are all ASCII and never occur inside a multi-byte UTF-8
+ * sequence, so the input can be scanned without decoding it first.
+ */
+public class CSVReader implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // Parser states
+    private static final int FIELD_START = 0;
+    private static final int UNQUOTED = 1;
+    private static final int QUOTED = 2;
+    private static final int QUOTE_IN_QUOTED = 3;
+
+    // Powers of ten that are exactly representable as doubles
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    // Source stream, or null when reading a buffer that holds the whole input
+    private final InputStream in;
+    private final ByteBuffer buffer;
+    private int position;
+    private int limit;
+
+    // Bytes of the current record's fields, each followed by a comma
+    private byte[] fieldBytes = new byte[256];
+    private int length;
+    private int[] fieldStarts = new int[8];
+    private int[] fieldEnds = new int[8];
+    private int fieldCount;
+    private boolean terminated;
+    private boolean endedInsideQuotes;
+    private long recordNumber;
+    private CRC32C crc;
+
+    /**
+     * Creates a tokenizer over a UTF-8 byte stream
+     * @param in The stream to read; closed by close()
+     */
+    public CSVReader(InputStream in) {
+        this.in = in;
+        this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a tokenizer over the remaining bytes of a buffer, e.g. a mapped file
+     * @param buffer The UTF-8 input
+     */
+    public CSVReader(ByteBuffer buffer) {
+        this.in = null;
+        this.buffer = buffer;
+        this.position = buffer.position();
+        this.limit = buffer.limit();
+    }
+
+    /**
+     * Advances to the next non-blank record
+     * @return true if a record was read, false at the end of the input
+     * @throws IOException If reading fails
+     */
+    public boolean readRecord() throws IOException {
+        while (true) {
+            length = 0;
+            fieldCount = 0;
+            terminated = false;
+            int fieldStart = 0;
+            // End of the field text, excluding trailing whitespace of unquoted fields
+            int contentEnd = 0;
+            int state = FIELD_START;
+            boolean sawAny = false;
+
+            // Work on locals; the fields are only synced around refills
+            ByteBuffer buf = buffer;
+            int pos = position;
+            int lim = limit;
+
+            while (true) {
+                if (pos == lim) {
+                    position = pos;
+                    if (!fill()) {
+                        break;
+                    }
+                    pos = position;
+                    lim = limit;
+                }
+                sawAny = true;
+
+                if (state == UNQUOTED) {
+                    // Copy the run of plain bytes up to the next delimiter in one go
+                    int runStart = pos;
+                    int lastContent = -1;
+                    byte c;
+                    while (pos < lim && (c = buf.get(pos)) != ',' && c != '\n' && c != '\r') {
+                        if (c != ' ' && c != '\t') {
+                            lastContent = pos;
+                        }
+                        pos++;
+                    }
+                    if (pos > runStart) {
+                        int runOffset = length;
+                        append(buf, runStart, pos - runStart);
+                        if (lastContent >= 0) {
+                            contentEnd = runOffset + lastContent - runStart + 1;
+                        }
+                        continue;
+                    }
+                } else if (state == QUOTED) {
+                    int runStart = pos;
+                    while (pos < lim && buf.get(pos) != '"') {
+                        pos++;
+                    }
+                    if (pos > runStart) {
+                        append(buf, runStart, pos - runStart);
+                        contentEnd = length;
+                        continue;
+                    }
+                }
+
+                byte c = buf.get(pos++);
+                switch (state) {
+                    case FIELD_START:
+                        if (c == '"') {
+                            state = QUOTED;
+                        } else if (c == ',') {
+                            endField(fieldStart, contentEnd);
+                            fieldStart = contentEnd = length;
+                        } else if (c == '\n') {
+                            terminated = true;
+                        } else if (c != ' ' && c != '\t' && c != '\r') {
+                            append(c);
+                            contentEnd = length;
+                            state = UNQUOTED;
+                        }
+                        break;
+                    case UNQUOTED:
+                        // Only delimiters reach here, plain bytes are copied as runs
+                        if (c == ',') {
+                            endField(fieldStart, contentEnd);
+                            fieldStart = contentEnd = length;
+                            state = FIELD_START;
+                        } else if (c == '\n') {
+                            terminated = true;
+                        }
+                        break;
+                    case QUOTED:
+                        // Only the quote reaches here
+                        state = QUOTE_IN_QUOTED;
+                        break;
+                    default:
+                        // QUOTE_IN_QUOTED: either an escaped quote or the closing quote
+                        if (c == '"') {
+                            append(c);
+                            contentEnd = length;
+                            state = QUOTED;
+                        } else if (c == ',') {
+                            endField(fieldStart, contentEnd);
+                            fieldStart = contentEnd = length;
+                            state = FIELD_START;
+                        } else if (c == '\n') {
+                            terminated = true;
+                        } else if (c != ' ' && c != '\t' && c != '\r') {
+                            // Text after a closing quote; keep it rather than dropping data
+                            append(c);
+                            contentEnd = length;
+                            state = UNQUOTED;
+                        }
+                        break;
+                }
+                if (terminated) {
+                    break;
+                }
+            }
+            position = pos;
+
+            if (!sawAny) {
+                return false;
+            }
+            if (state == QUOTED) {
+                // Input ended inside a quoted field, so the record is incomplete
+                fieldCount = 0;
+                endedInsideQuotes = true;
+                return false;
+            }
+            endField(fieldStart, contentEnd);
+            recordNumber++;
+
+            // Skip blank lines
+            if (fieldCount > 1 || fieldEnds[0] > fieldStarts[0]) {
+                return true;
+            }
+            if (!terminated) {
+                return false;
+            }
+        }
+    }
+
+    private boolean fill() throws IOException {
+        if (in == null) {
+            return false;
+        }
+        int read = in.read(buffer.array(), 0, buffer.capacity());
+        if (read <= 0) {
+            return false;
+        }
+        position = 0;
+        limit = read;
+        return true;
+    }
+
+    private void append(byte c) {
+        if (length == fieldBytes.length) {
+            grow(length + 1);
+        }
+        fieldBytes[length++] = c;
+    }
+
+    private void append(ByteBuffer source, int offset, int count) {
+        if (length + count > fieldBytes.length) {
+            grow(length + count);
+        }
+        source.get(offset, fieldBytes, length, count);
+        length += count;
+    }
+
+    private void grow(int minCapacity) {
+        byte[] grown = new byte[Math.max(fieldBytes.length * 2, minCapacity)];
+        System.arraycopy(fieldBytes, 0, grown, 0, length);
+        fieldBytes = grown;
+    }
+
+    private void endField(int start, int end) {
+        if (fieldCount == fieldStarts.length) {
+            int[] grownStarts = new int[fieldCount * 2];
+            int[] grownEnds = new int[fieldCount * 2];
+            System.arraycopy(fieldStarts, 0, grownStarts, 0, fieldCount);
+            System.arraycopy(fieldEnds, 0, grownEnds, 0, fieldCount);
+            fieldStarts = grownStarts;
+            fieldEnds = grownEnds;
+        }
+        fieldStarts[fieldCount] = start;
+        fieldEnds[fieldCount] = end;
+        fieldCount++;
+
+        // Drop trailing whitespace and separate the fields as written, so a
+        // checksum over several fields is a single pass over one range
+        length = end;
+        append((byte) ',');
+    }
+
+    /**
+     * Returns the number of fields in the current record
+     * @return The field count
+     */
+    public int getFieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * Checks if the current record ended with a line terminator
+     * A record that runs into the end of the input may have been cut short by a crash
+     * @return true if the record was terminated
+     */
+    public boolean isTerminated() {
+        return terminated;
+    }
+
+    /**
+     * Returns the offset just past the current record in a buffer-backed reader
+     * @return The buffer offset of the next record
+     */
+    int getPosition() {
+        return position;
+    }
+
+    /**
+     * Checks if the input ended inside a quoted field, leaving an incomplete record
+     * @return true if the last readRecord call stopped in an open quote
+     */
+    boolean endedInsideQuotes() {
+        return endedInsideQuotes;
+    }
+
+    /**
+     * Returns the 1-based number of the current record, counting blank lines
+     * @return The record number
+     */
+    public long getRecordNumber() {
+        return recordNumber;
+    }
+
+    /**
+     * Returns a field as text, with quotes removed and doubled quotes unescaped
+     * @param index The field index
+     * @return The field value
+     */
+    public String getString(int index) {
+        checkIndex(index);
+        return new String(fieldBytes, fieldStarts[index], fieldEnds[index] - fieldStarts[index], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns a field as the canonical instance held by a dictionary
+     * Values already in the dictionary are found without creating a String
+     * @param index The field index
+     * @param dictionary The dictionary to intern the value in
+     * @return The field value
+     */
+    public String getString(int index, StringDictionary dictionary) {
+        checkIndex(index);
+        return dictionary.intern(fieldBytes, fieldStarts[index], fieldEnds[index] - fieldStarts[index]);
+    }
+
+    /**
+     * Parses a field as an int without creating a String
+     * @param index The field index
+     * @return The value
+     * @throws NumberFormatException If the field is not a valid int
+     */
+    public int getInt(int index) {
+        checkIndex(index);
+        int start = fieldStarts[index];
+        int end = fieldEnds[index];
+        boolean negative = start < end && fieldBytes[start] == '-';
+        int i = negative || (start < end && fieldBytes[start] == '+') ? start + 1 : start;
+        if (i == end) {
+            throw invalidNumber(index);
+        }
+
+        // Accumulate negatively so Integer.MIN_VALUE fits
+        int result = 0;
+        for (; i < end; i++) {
+            int digit = fieldBytes[i] - '0';
+            if (digit < 0 || digit > 9 || result < (Integer.MIN_VALUE + digit) / 10) {
+                throw invalidNumber(index);
+            }
+            result = result * 10 - digit;
+        }
+        if (!negative) {
+            if (result == Integer.MIN_VALUE) {
+                throw invalidNumber(index);
+            }
+            result = -result;
+        }
+        return result;
+    }
+
+    /**
+     * Parses a field as a double
+     * Plain decimals with up to 15 significant digits are converted in place
+     * and are exact to the nearest double; other forms (exponents, NaN, long
+     * fractions) fall back to Double.parseDouble
+     * @param index The field index
+     * @return The value
+     * @throws NumberFormatException If the field is not a valid double
+     */
+    public double getDouble(int index) {
+        checkIndex(index);
+        int start = fieldStarts[index];
+        int end = fieldEnds[index];
+        boolean negative = start < end && fieldBytes[start] == '-';
+        int i = negative || (start < end && fieldBytes[start] == '+') ? start + 1 : start;
+
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+        boolean sawDigit = false;
+        for (; i < end; i++) {
+            byte c = fieldBytes[i];
+            if (c >= '0' && c <= '9') {
+                sawDigit = true;
+                mantissa = mantissa * 10 + (c - '0');
+                if (mantissa != 0) {
+                    digits++;
+                }
+                if (fractionDigits >= 0) {
+                    fractionDigits++;
+                }
+            } else if (c == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else {
+                break;
+            }
+        }
+
+        boolean plain = i == end && sawDigit && digits <= 15 && fractionDigits < POWERS_OF_TEN.length;
+        if (!plain) {
+            try {
+                return Double.parseDouble(getString(index));
+            } catch (NumberFormatException e) {
+                throw invalidNumber(index);
+            }
+        }
+
+        // Both operands are exact, so a single division rounds correctly
+        double value = fractionDigits > 0 ? mantissa / POWERS_OF_TEN[fractionDigits] : mantissa;
+        return negative ? -value : value;
+    }
+
+    /**
+     * Checks the record against the checksum in its last field
+     * The checksum is a CRC32C over every other field's unescaped bytes, each
+     * followed by a comma, as written by FileManager.formatCheckedLine. The
+     * fields are kept in that form, so this is one pass over one array.
+     * @return true if the last field is the hex checksum of the fields before it
+     */
+    public boolean hasValidChecksum() {
+        if (fieldCount < 2) {
+            return false;
+        }
+        int last = fieldCount - 1;
+        int start = fieldStarts[last];
+        int end = fieldEnds[last];
+        if (end == start || end - start > 8) {
+            return false;
+        }
+        int expected = 0;
+        for (int i = start; i < end; i++) {
+            int digit = Character.digit(fieldBytes[i], 16);
+            if (digit < 0) {
+                return false;
+            }
+            expected = expected << 4 | digit;
+        }
+
+        if (crc == null) {
+            crc = new CRC32C();
+        } else {
+            crc.reset();
+        }
+        crc.update(fieldBytes, fieldStarts[0], fieldStarts[last] - fieldStarts[0]);
+        return (int) crc.getValue() == expected;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= fieldCount) {
+            throw new IndexOutOfBoundsException("Field: " + index + ", Fields: " + fieldCount);
+        }
+    }
+
+    private NumberFormatException invalidNumber(int index) {
+        return new NumberFormatException("For input string: \"" + getString(index) + "\"");
+    }
+
+    /**
+     * Closes the underlying stream, if any
+     * @throws IOException If closing fails
+     */
+    @Override
+    public void close() throws IOException {
+        if (in != null) {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package src;
+
+import java.io.File;
+import java.io.IOException;
+import src.datastructures.BinarySearchTree;
+
+/**
+ * Stores all items in a single CSV file encoded as UTF-8
+ * The file is human-readable and rewritten on every change. Each row ends
+ * with a CRC32C of its fields, so corrupt rows are reported on load.
+ */
+public class CSVStorageEngine extends SnapshotStorageEngine {
+
+    /**
+     * Creates an engine storing inventory_data.csv in the given directory
+     * @param directory The data directory
+     */
+    public CSVStorageEngine(String directory) {
+        super(directory);
+    }
+
+    @Override
+    protected File getSnapshotFile() {
+        return new File(getDirectory(), CSV_FILE);
+    }
+
+    @Override
+    protected void writeSnapshot(File file, BinarySearchTree items) throws IOException {
+        FileManager.writeCSV(items, file, true);
+    }
+}
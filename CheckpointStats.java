@@ -0,0 +1,91 @@
+package src;
+
+/**
+ * Point-in-time statistics of the checkpoints of a LogStructuredStorageEngine
+ * A checkpoint writes a fresh snapshot and truncates the log; the bytes it
+ * reclaims are the old log and snapshot sizes minus the new snapshot size.
+ */
+public class CheckpointStats {
+
+    private final int checkpoints;
+    private final long logSize;
+    private final long snapshotSize;
+    private final long lastDurationMillis;
+    private final long lastBytesReclaimed;
+    private final long totalBytesReclaimed;
+    private final long lastCheckpointTime;
+
+    CheckpointStats(int checkpoints, long logSize, long snapshotSize, long lastDurationMillis,
+                    long lastBytesReclaimed, long totalBytesReclaimed, long lastCheckpointTime) {
+        this.checkpoints = checkpoints;
+        this.logSize = logSize;
+        this.snapshotSize = snapshotSize;
+        this.lastDurationMillis = lastDurationMillis;
+        this.lastBytesReclaimed = lastBytesReclaimed;
+        this.totalBytesReclaimed = totalBytesReclaimed;
+        this.lastCheckpointTime = lastCheckpointTime;
+    }
+
+    /**
+     * Returns the number of checkpoints since the engine was created
+     * @return The count
+     */
+    public int getCheckpoints() {
+        return checkpoints;
+    }
+
+    /**
+     * Returns the current size of the log
+     * @return The size in bytes
+     */
+    public long getLogSize() {
+        return logSize;
+    }
+
+    /**
+     * Returns the current size of the snapshot
+     * @return The size in bytes, 0 if there is no snapshot
+     */
+    public long getSnapshotSize() {
+        return snapshotSize;
+    }
+
+    /**
+     * Returns how long the last checkpoint took, including loading the items if needed
+     * @return The duration in milliseconds, 0 if there was no checkpoint yet
+     */
+    public long getLastDurationMillis() {
+        return lastDurationMillis;
+    }
+
+    /**
+     * Returns the bytes reclaimed by the last checkpoint
+     * @return The bytes, negative if the new snapshot outgrew the old files
+     */
+    public long getLastBytesReclaimed() {
+        return lastBytesReclaimed;
+    }
+
+    /**
+     * Returns the bytes reclaimed by all checkpoints since the engine was created
+     * @return The bytes
+     */
+    public long getTotalBytesReclaimed() {
+        return totalBytesReclaimed;
+    }
+
+    /**
+     * Returns when the last checkpoint finished
+     * @return The time in milliseconds since the epoch, 0 if there was no checkpoint yet
+     */
+    public long getLastCheckpointTime() {
+        return lastCheckpointTime;
+    }
+
+    @Override
+    public String toString() {
+        return checkpoints + " checkpoints, log " + logSize + " bytes, snapshot " + snapshotSize
+                + " bytes, last took " + lastDurationMillis + " ms and reclaimed " + lastBytesReclaimed
+                + " bytes, " + totalBytesReclaimed + " bytes reclaimed in total";
+    }
+}
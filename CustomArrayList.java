@@ -1,19 +1,36 @@
 package src.datastructures;
 
-import src.InventoryItem;
 import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
- * Custom ArrayList implementation specifically for storing inventory items
+ * Custom resizable array list
+ * Growing, inserting and removing move elements with System.arraycopy, and
+ * the bulk operations check the capacity once for all elements. Iterators and
+ * spliterators are fail-fast: they throw ConcurrentModificationException if
+ * the list is structurally modified other than through the iterator itself.
+ * @param <T> The element type
  */
-public class CustomArrayList implements Serializable {
-    private static final long serialVersionUID = 1L;
+public class CustomArrayList<T> implements Iterable<T>, Serializable {
+    private static final long serialVersionUID = 2L;
     private static final int DEFAULT_CAPACITY = 10;
-    private InventoryItem[] elements;
+    private static final Object[] EMPTY = {};
+    private Object[] elements;
     private int size;
+    // Counts structural changes so iterators can fail fast
+    private transient int modCount;
 
     public CustomArrayList() {
-        elements = new InventoryItem[DEFAULT_CAPACITY];
+        elements = new Object[DEFAULT_CAPACITY];
         size = 0;
     }
 
@@ -21,53 +38,139 @@ public class CustomArrayList implements Serializable {
         if (initialCapacity < 0) {
             throw new IllegalArgumentException("Illegal Capacity: " + initialCapacity);
         }
-        elements = new InventoryItem[initialCapacity];
+        elements = initialCapacity == 0 ? EMPTY : new Object[initialCapacity];
         size = 0;
     }
 
-    public void add(InventoryItem element) {
-        ensureCapacity(size + 1);
-        elements[size++] = element;
+    /**
+     * Creates a list holding the elements of a collection, in its iteration order
+     * @param source The collection
+     */
+    public CustomArrayList(Collection<? extends T> source) {
+        elements = source.toArray();
+        if (elements.getClass() != Object[].class) {
+            elements = Arrays.copyOf(elements, elements.length, Object[].class);
+        }
+        size = elements.length;
     }
 
-    public InventoryItem get(int index) {
-        if (index < 0 || index >= size) {
-            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    public void add(T element) {
+        modCount++;
+        if (size == elements.length) {
+            grow(size + 1);
         }
-        return elements[index];
+        elements[size++] = element;
     }
 
-    public InventoryItem remove(int index) {
-        if (index < 0 || index >= size) {
-            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    /**
+     * Inserts an element, shifting the element at the index and all after it up by one
+     * @param index The index, from 0 to size
+     * @param element The element
+     */
+    public void add(int index, T element) {
+        checkPositionIndex(index);
+        modCount++;
+        if (size == elements.length) {
+            grow(size + 1);
         }
+        System.arraycopy(elements, index, elements, index + 1, size - index);
+        elements[index] = element;
+        size++;
+    }
+
+    /**
+     * Appends all elements of an array
+     * @param source The elements
+     */
+    public void addAll(T[] source) {
+        appendArray(source, 0, source.length);
+    }
+
+    /**
+     * Appends a range of an array
+     * @param source The array
+     * @param offset The index of the first element to append
+     * @param length The number of elements
+     */
+    public void addAll(T[] source, int offset, int length) {
+        Objects.checkFromIndexSize(offset, length, source.length);
+        appendArray(source, offset, length);
+    }
 
-        InventoryItem removedElement = elements[index];
+    /**
+     * Appends all elements of a collection, in its iteration order
+     * @param source The collection
+     */
+    public void addAll(Collection<? extends T> source) {
+        Object[] added = source.toArray();
+        appendArray(added, 0, added.length);
+    }
+
+    /**
+     * Appends all elements of another list
+     * @param source The list, may be this list
+     */
+    public void addAll(CustomArrayList<? extends T> source) {
+        appendArray(source.elements, 0, source.size);
+    }
 
-        // Shift elements to the left
-        for (int i = index; i < size - 1; i++) {
-            elements[i] = elements[i + 1];
+    private void appendArray(Object[] source, int offset, int length) {
+        modCount++;
+        if (length > elements.length - size) {
+            grow(size + length);
         }
+        System.arraycopy(source, offset, elements, size, length);
+        size += length;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+        return (T) elements[Objects.checkIndex(index, size)];
+    }
 
+    public T remove(int index) {
+        T removedElement = get(index);
+        modCount++;
+        int moved = size - index - 1;
+        if (moved > 0) {
+            System.arraycopy(elements, index + 1, elements, index, moved);
+        }
         elements[--size] = null; // Clear the last element
         return removedElement;
     }
 
-    public boolean remove(InventoryItem element) {
-        for (int i = 0; i < size; i++) {
-            if (element.equals(elements[i])) {
-                remove(i);
-                return true;
-            }
+    public boolean remove(Object element) {
+        int index = indexOf(element);
+        if (index < 0) {
+            return false;
         }
-        return false;
+        remove(index);
+        return true;
     }
 
-    public void set(int index, InventoryItem element) {
-        if (index < 0 || index >= size) {
-            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    /**
+     * Removes the elements from fromIndex (inclusive) to toIndex (exclusive)
+     * @param fromIndex The index of the first element to remove
+     * @param toIndex The index after the last element to remove
+     */
+    public void removeRange(int fromIndex, int toIndex) {
+        Objects.checkFromToIndex(fromIndex, toIndex, size);
+        if (fromIndex == toIndex) {
+            return;
         }
+        modCount++;
+        System.arraycopy(elements, toIndex, elements, fromIndex, size - toIndex);
+        int newSize = size - (toIndex - fromIndex);
+        Arrays.fill(elements, newSize, size, null);
+        size = newSize;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T set(int index, T element) {
+        Objects.checkIndex(index, size);
+        T previous = (T) elements[index];
         elements[index] = element;
+        return previous;
     }
 
     public int size() {
@@ -79,41 +182,238 @@ public class CustomArrayList implements Serializable {
     }
 
     public void clear() {
-        for (int i = 0; i < size; i++) {
-            elements[i] = null;
-        }
+        modCount++;
+        Arrays.fill(elements, 0, size, null);
         size = 0;
     }
 
-    public boolean contains(InventoryItem element) {
+    public boolean contains(Object element) {
         return indexOf(element) >= 0;
     }
 
-    public int indexOf(InventoryItem element) {
-        if (element == null) {
-            for (int i = 0; i < size; i++) {
-                if (elements[i] == null) {
-                    return i;
-                }
-            }
-        } else {
-            for (int i = 0; i < size; i++) {
-                if (element.equals(elements[i])) {
-                    return i;
-                }
+    public int indexOf(Object element) {
+        for (int i = 0; i < size; i++) {
+            if (Objects.equals(element, elements[i])) {
+                return i;
             }
         }
         return -1;
     }
 
-    private void ensureCapacity(int minCapacity) {
+    /**
+     * Makes room for at least the given number of elements
+     * @param minCapacity The capacity needed
+     */
+    public void ensureCapacity(int minCapacity) {
         if (minCapacity > elements.length) {
-            int newCapacity = Math.max(elements.length * 2, minCapacity);
-            InventoryItem[] newElements = new InventoryItem[newCapacity];
-            for (int i = 0; i < size; i++) {
-                newElements[i] = elements[i];
+            modCount++;
+            grow(minCapacity);
+        }
+    }
+
+    /**
+     * Shrinks the backing array to the number of elements
+     */
+    public void trimToSize() {
+        if (size < elements.length) {
+            modCount++;
+            elements = size == 0 ? EMPTY : Arrays.copyOf(elements, size);
+        }
+    }
+
+    /**
+     * Copies the elements into a new array
+     * @return The array, of type Object[]
+     */
+    public Object[] toArray() {
+        return Arrays.copyOf(elements, size);
+    }
+
+    /**
+     * Copies the elements into an array of the given type
+     * @param target The array to fill if it is large enough; otherwise a new array of its type is returned
+     * @param <E> The array component type
+     * @return The array holding the elements, followed by a null if target has room to spare
+     */
+    @SuppressWarnings("unchecked")
+    public <E> E[] toArray(E[] target) {
+        if (target.length < size) {
+            return (E[]) Arrays.copyOf(elements, size, target.getClass());
+        }
+        System.arraycopy(elements, 0, target, 0, size);
+        if (target.length > size) {
+            target[size] = null;
+        }
+        return target;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return new Itr();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void forEach(Consumer<? super T> action) {
+        int expectedModCount = modCount;
+        Object[] data = elements;
+        int end = size;
+        for (int i = 0; i < end && modCount == expectedModCount; i++) {
+            action.accept((T) data[i]);
+        }
+        if (modCount != expectedModCount) {
+            throw new ConcurrentModificationException();
+        }
+    }
+
+    @Override
+    public Spliterator<T> spliterator() {
+        return new ListSpliterator(0, -1, 0);
+    }
+
+    /**
+     * Returns a sequential stream over the elements
+     * @return The stream
+     */
+    public Stream<T> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * Returns a parallel stream over the elements; the spliterator splits the index range in halves
+     * @return The stream
+     */
+    public Stream<T> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
+
+    private void checkPositionIndex(int index) {
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    private void grow(int minCapacity) {
+        int newCapacity = Math.max(elements.length * 2, minCapacity);
+        if (newCapacity < 0) {
+            // The doubling overflowed
+            newCapacity = Integer.MAX_VALUE - 8;
+        }
+        elements = Arrays.copyOf(elements, newCapacity);
+    }
+
+    private class Itr implements Iterator<T> {
+        private int cursor;
+        // Index of the element last returned, -1 if none or removed
+        private int lastReturned = -1;
+        private int expectedModCount = modCount;
+
+        @Override
+        public boolean hasNext() {
+            return cursor < size;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T next() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (cursor >= size) {
+                throw new NoSuchElementException();
+            }
+            lastReturned = cursor++;
+            return (T) elements[lastReturned];
+        }
+
+        @Override
+        public void remove() {
+            if (lastReturned < 0) {
+                throw new IllegalStateException();
+            }
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
             }
-            elements = newElements;
+            CustomArrayList.this.remove(lastReturned);
+            cursor = lastReturned;
+            lastReturned = -1;
+            expectedModCount = modCount;
+        }
+    }
+
+    /**
+     * Splits the index range in halves; binds to the list's size and modCount on first use,
+     * so a spliterator created before elements are added still sees them
+     */
+    private class ListSpliterator implements Spliterator<T> {
+        private int index;
+        // One past the last index, -1 until bound
+        private int fence;
+        private int expectedModCount;
+
+        ListSpliterator(int origin, int fence, int expectedModCount) {
+            this.index = origin;
+            this.fence = fence;
+            this.expectedModCount = expectedModCount;
+        }
+
+        private int getFence() {
+            if (fence < 0) {
+                expectedModCount = modCount;
+                fence = size;
+            }
+            return fence;
+        }
+
+        @Override
+        public Spliterator<T> trySplit() {
+            int high = getFence();
+            int mid = (index + high) >>> 1;
+            if (index >= mid) {
+                return null;
+            }
+            Spliterator<T> prefix = new ListSpliterator(index, mid, expectedModCount);
+            index = mid;
+            return prefix;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean tryAdvance(Consumer<? super T> action) {
+            int high = getFence();
+            if (index >= high) {
+                return false;
+            }
+            T element = (T) elements[index++];
+            action.accept(element);
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            return true;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void forEachRemaining(Consumer<? super T> action) {
+            int high = getFence();
+            Object[] data = elements;
+            for (int i = index; i < high; i++) {
+                action.accept((T) data[i]);
+            }
+            index = high;
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+
+        @Override
+        public long estimateSize() {
+            return getFence() - index;
+        }
+
+        @Override
+        public int characteristics() {
+            return Spliterator.ORDERED | Spliterator.SIZED | Spliterator.SUBSIZED;
         }
     }
 }
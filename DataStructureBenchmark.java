@@ -0,0 +1,187 @@
+package src.datastructures;
+
+import src.InventoryItem;
+import java.util.Random;
+import java.util.function.IntFunction;
+
+/**
+ * Simple timing harness for the custom data structures
+ * Run with: java src.datastructures.DataStructureBenchmark [itemCount...]
+ */
+public class DataStructureBenchmark {
+
+    public static void main(String[] args) {
+        int[] sizes = {10_000, 100_000, 1_000_000};
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+
+        // Warm up the JIT before measuring
+        benchmarkTree(10_000, false);
+
+        System.out.printf("%-12s %-10s %-8s %-14s %-14s%n", "ITEMS", "ORDER", "HEIGHT", "INSERT (ms)", "FIND (ns/op)");
+        for (int size : sizes) {
+            benchmarkTree(size, true);
+        }
+
+        int[] indexSizes = args.length > 0 ? sizes : new int[] {100_000, 1_000_000, 10_000_000};
+        benchmarkIndex(10_000, false);
+
+        System.out.println();
+        System.out.printf("%-12s %-18s %-18s %-18s%n", "ITEMS", "INDEX PUT (ms)", "TREE FIND (ns/op)", "INDEX GET (ns/op)");
+        for (int size : indexSizes) {
+            benchmarkIndex(size, true);
+        }
+
+        benchmarkScan(10_000, false);
+
+        System.out.println();
+        System.out.printf("%-12s %-18s %-18s%n", "ITEMS", "TREE SCAN (ms)", "TABLE SCAN (ms)");
+        for (int size : sizes) {
+            benchmarkScan(size, true);
+        }
+    }
+
+    /**
+     * Compares summing the stock value over the objects of a BinarySearchTree
+     * with the same sum over the primitive columns of an ItemTable
+     */
+    private static void benchmarkScan(int size, boolean print) {
+        InventoryItem[] items = createItems(size);
+        BinarySearchTree.Builder builder = new BinarySearchTree.Builder();
+        for (InventoryItem item : items) {
+            builder.add(item);
+        }
+        BinarySearchTree tree = builder.build();
+        ItemTable table = ItemTable.of(tree);
+
+        // Best of several runs, the first ones include JIT compilation
+        long treeNanos = Long.MAX_VALUE;
+        long tableNanos = Long.MAX_VALUE;
+        for (int run = 0; run < 5; run++) {
+            long start = System.nanoTime();
+            double treeValue = 0;
+            for (InventoryItem item : tree) {
+                treeValue += item.getQuantity() * item.getPrice();
+            }
+            treeNanos = Math.min(treeNanos, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            double tableValue = table.totalValue();
+            tableNanos = Math.min(tableNanos, System.nanoTime() - start);
+
+            if (treeValue != tableValue) {
+                throw new IllegalStateException("Scans disagree: " + treeValue + " != " + tableValue);
+            }
+        }
+
+        if (print) {
+            System.out.printf("%-12d %-18.2f %-18.2f%n", size, treeNanos / 1e6, tableNanos / 1e6);
+        }
+    }
+
+    /**
+     * Compares random lookups by ID in a BinarySearchTree and an IdIndex holding the same items
+     * The items share their strings, so ten million of them fit in a default heap
+     */
+    private static void benchmarkIndex(int size, boolean print) {
+        BinarySearchTree.Builder builder = new BinarySearchTree.Builder();
+        for (int i = 0; i < size; i++) {
+            builder.add(new InventoryItem(i + 1, "Item", "Category", i % 100, 9.99, "Supplier"));
+        }
+        BinarySearchTree tree = builder.build();
+
+        long start = System.nanoTime();
+        IdIndex index = new IdIndex(size);
+        tree.inOrderTraversal(index::put);
+        long putNanos = System.nanoTime() - start;
+
+        int lookups = 1_000_000;
+        int[] ids = new int[lookups];
+        Random random = new Random(7);
+        for (int i = 0; i < lookups; i++) {
+            ids[i] = 1 + random.nextInt(size);
+        }
+
+        long treeNanos = timeLookups(ids, tree::find);
+        long indexNanos = timeLookups(ids, index::get);
+
+        if (print) {
+            System.out.printf("%-12d %-18.1f %-18.1f %-18.1f%n",
+                    size, putNanos / 1e6, (double) treeNanos / lookups, (double) indexNanos / lookups);
+        }
+    }
+
+    private static long timeLookups(int[] ids, IntFunction<InventoryItem> lookup) {
+        int found = 0;
+        long start = System.nanoTime();
+        for (int id : ids) {
+            if (lookup.apply(id) != null) {
+                found++;
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        if (found != ids.length) {
+            throw new IllegalStateException("Lookups failed: " + (ids.length - found));
+        }
+        return nanos;
+    }
+
+    private static void benchmarkTree(int size, boolean print) {
+        InventoryItem[] sorted = createItems(size);
+        InventoryItem[] shuffled = sorted.clone();
+        shuffle(shuffled, new Random(42));
+
+        runTree("sorted", sorted, print);
+        runTree("shuffled", shuffled, print);
+    }
+
+    private static void runTree(String order, InventoryItem[] items, boolean print) {
+        BinarySearchTree tree = new BinarySearchTree();
+
+        long start = System.nanoTime();
+        for (InventoryItem item : items) {
+            tree.add(item);
+        }
+        long insertNanos = System.nanoTime() - start;
+
+        Random random = new Random(7);
+        int lookups = 1_000_000;
+        int found = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            if (tree.find(1 + random.nextInt(items.length)) != null) {
+                found++;
+            }
+        }
+        long findNanos = System.nanoTime() - start;
+
+        if (print) {
+            System.out.printf("%-12d %-10s %-8d %-14.1f %-14.1f%n",
+                    items.length, order, tree.height(), insertNanos / 1e6, (double) findNanos / lookups);
+        }
+        if (found != lookups) {
+            throw new IllegalStateException("Lookups failed: " + (lookups - found));
+        }
+    }
+
+    private static InventoryItem[] createItems(int size) {
+        InventoryItem[] items = new InventoryItem[size];
+        for (int i = 0; i < size; i++) {
+            items[i] = new InventoryItem(i + 1, "Item " + (i + 1), "Category " + (i % 20), i % 100, 9.99, "Supplier " + (i % 50));
+        }
+        return items;
+    }
+
+    private static void shuffle(InventoryItem[] items, Random random) {
+        for (int i = items.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            InventoryItem temp = items[i];
+            items[i] = items[j];
+            items[j] = temp;
+        }
+    }
+}
@@ -1,157 +1,360 @@
 package src;
 import java.io.*;
-import java.util.Scanner;
+import java.nio.charset.StandardCharsets;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
 import src.datastructures.BinarySearchTree;
-import src.datastructures.CustomArrayList;
+import src.datastructures.StringDictionary;
 
 /**
  * Handles file operations for the inventory system
- * Uses CSV format for storing inventory data
+ * Persistence goes through a StorageEngine; the static methods here act on a
+ * default engine chosen by the inventory.storage and inventory.format system
+ * properties and storing its files in inventory_data/. This class also holds
+ * the CSV encoding shared by the engines, the log and the loaders.
  */
 public class FileManager {
 
     // Change the file path to use a single file
     private static final String CSV_DIRECTORY = "inventory_data/";
-    private static final String CSV_FILE = "inventory_data.csv";
+
+    static final String CSV_HEADER = "itemId,name,category,quantity,price,supplier";
+    // Extra last column of the storage snapshot holding each row's checksum
+    static final String CHECKSUM_COLUMN = "crc";
+
+    // Engine used by the static methods, created from the settings below on first use
+    private static StorageEngine engine;
+
+    // Engine type: "log" (default), "csv", "binary" or "memory"
+    private static String storageType = System.getProperty("inventory.storage", "log");
+
+    // When enabled, snapshots are written in the binary format instead of CSV
+    private static boolean binaryFormat = "binary".equalsIgnoreCase(System.getProperty("inventory.format", "csv"));
+
+    // When enabled, deleting an item leaves the IDs of all other items unchanged
+    private static boolean stableIds = Boolean.getBoolean("inventory.stableIds");
+
+    /**
+     * Creates an engine of the configured type
+     * @param directory The directory holding the engine's files
+     * @return The engine
+     */
+    public static synchronized StorageEngine createEngine(String directory) {
+        switch (storageType.toLowerCase()) {
+            case "memory":
+                return new InMemoryStorageEngine();
+            case "offheap":
+                // InventoryManager still keeps every item on the heap, and nothing survives a restart
+                System.out.println("Warning: the offheap engine keeps items in memory only; "
+                        + "changes are lost on exit and the items are also held on the heap");
+                return new OffHeapStorageEngine();
+            case "csv":
+                return new CSVStorageEngine(directory);
+            case "binary":
+                return new BinaryStorageEngine(directory);
+            case "records":
+                return new RecordStorageEngine(directory);
+            case "log":
+                break;
+            default:
+                System.out.println("Unknown storage engine \"" + storageType + "\", using log");
+        }
+        SnapshotStorageEngine snapshot = binaryFormat
+                ? new BinaryStorageEngine(directory) : new CSVStorageEngine(directory);
+        return new LogStructuredStorageEngine(snapshot);
+    }
+
+    /**
+     * Returns the engine used by the static methods and by managers created without one
+     * @return The default engine, shared by all callers in this process
+     */
+    public static synchronized StorageEngine getEngine() {
+        if (engine == null) {
+            engine = createEngine(CSV_DIRECTORY);
+        }
+        return engine;
+    }
+
+    /**
+     * Replaces the default engine, e.g. with an InMemoryStorageEngine for tests
+     * @param newEngine The engine to use, or null to create one from the settings again
+     */
+    public static synchronized void setEngine(StorageEngine newEngine) {
+        if (engine != null && engine != newEngine) {
+            engine.close();
+        }
+        engine = newEngine;
+    }
+
+    /**
+     * Selects the format of the snapshot file
+     * Takes effect for engines created afterwards, including the default one;
+     * existing data in the other format is still read, so switching formats
+     * needs no manual conversion. Defaults to the inventory.format system
+     * property ("csv" or "binary").
+     * @param binary true to store a binary snapshot, false to store CSV
+     */
+    public static synchronized void setBinaryFormat(boolean binary) {
+        binaryFormat = binary;
+        if (storageType.equalsIgnoreCase("csv") || storageType.equalsIgnoreCase("binary")) {
+            storageType = binary ? "binary" : "csv";
+        }
+        setEngine(null);
+    }
 
     /**
-     * Ensures the directory for storing CSV files exists
+     * Checks if snapshots are stored in the binary format
+     * @return true for binary snapshots, false for CSV
      */
-    private static void ensureDirectoryExists() {
-        File directory = new File(CSV_DIRECTORY);
-        if (!directory.exists()) {
-            directory.mkdirs();
+    public static synchronized boolean isBinaryFormat() {
+        return binaryFormat;
+    }
+
+    /**
+     * Enables or disables log-structured persistence
+     * When disabled every mutation rewrites the whole snapshot
+     * @param enabled true to append mutations to the log
+     */
+    public static synchronized void setLogStructured(boolean enabled) {
+        boolean logStructured = storageType.equalsIgnoreCase("log");
+        if (logStructured == enabled) {
+            return;
+        }
+        if (logStructured) {
+            // Fold pending records into the snapshot so it is complete on its own
+            checkpoint();
         }
+        storageType = enabled ? "log" : binaryFormat ? "binary" : "csv";
+        setEngine(null);
     }
 
-    // Replace getFilePath method to return the single file path
-    private static String getFilePath() {
-        return CSV_DIRECTORY + CSV_FILE;
+    /**
+     * Enables or disables stable item IDs
+     * With stable IDs a delete only removes the item (recorded as a tombstone in
+     * the log) instead of shifting every higher ID down by one, so it is O(log n)
+     * and IDs held by clients stay valid. Defaults to the inventory.stableIds
+     * system property.
+     * @param enabled true to keep IDs stable across deletes
+     */
+    public static void setStableIds(boolean enabled) {
+        stableIds = enabled;
+    }
+
+    /**
+     * Checks if item IDs stay stable across deletes
+     * @return true if deletes do not renumber items
+     */
+    public static boolean isStableIds() {
+        return stableIds;
     }
 
     // Update writeItemToFile method to use a single file
     public static void writeItemToFile(InventoryItem item) {
-        ensureDirectoryExists();
-        String filePath = getFilePath();
-
         // Read existing items
         BinarySearchTree existingItems = readAllItems();
 
         // Add or update item
         existingItems.add(item);
 
-        // Write all items back to file
-        try (PrintWriter writer = new PrintWriter(new FileWriter(filePath))) {
-            // Write header
-            writer.println("itemId,name,category,quantity,price,supplier");
-
-            // Write items using in-order traversal
-            existingItems.inOrderTraversal(currentItem -> {
-                writer.println(
-                        currentItem.getItemId() + "," +
-                                escapeCSV(currentItem.getName()) + "," +
-                                escapeCSV(currentItem.getCategory()) + "," +
-                                currentItem.getQuantity() + "," +
-                                currentItem.getPrice() + "," +
-                                escapeCSV(currentItem.getSupplier())
-                );
-            });
-            System.out.println("Item saved successfully to " + filePath);
-        } catch (IOException e) {
-            System.out.println("Error saving data: " + e.getMessage());
-            e.printStackTrace();
-        }
+        writeItem(existingItems, item);
+    }
+
+    /**
+     * Persists a created or updated item for a caller that holds all items in memory
+     * @param items All current items, already including the change
+     * @param item The created or updated item
+     * @return true if the change was saved
+     */
+    public static boolean writeItem(BinarySearchTree items, InventoryItem item) {
+        return getEngine().put(items, item);
     }
 
     // Update deleteItemFromFile method to use a single file and update IDs
     public static boolean deleteItemFromFile(int itemId) {
-        ensureDirectoryExists();
-        String filePath = getFilePath();
-        File file = new File(filePath);
-
-        if (!file.exists()) {
+        BinarySearchTree items = readAllItems();
+        InventoryItem item = items.find(itemId);
+        if (item == null) {
             return false;
         }
 
-        BinarySearchTree items = readAllItems();
-        boolean deleted = items.remove(itemId);
-
-        if (deleted) {
-            // Update IDs for items with higher IDs
-            CustomArrayList itemList = new CustomArrayList();
-            items.inOrderTraversal(itemList::add);
-
-            // Clear the BST
-            items = new BinarySearchTree();
-
-            // Update IDs and add back to BST
-            for (int i = 0; i < itemList.size(); i++) {
-                InventoryItem item = itemList.get(i);
-                if (item.getItemId() > itemId) {
-                    item.setItemId(item.getItemId() - 1);
-                }
-                items.add(item);
-            }
+        removeItem(items, itemId);
+        return deleteItem(items, item);
+    }
 
-            try (PrintWriter writer = new PrintWriter(new FileWriter(filePath))) {
-                // Write header
-                writer.println("itemId,name,category,quantity,price,supplier");
-
-                // Write remaining items
-                items.inOrderTraversal(item -> {
-                    writer.println(
-                            item.getItemId() + "," +
-                                    escapeCSV(item.getName()) + "," +
-                                    escapeCSV(item.getCategory()) + "," +
-                                    item.getQuantity() + "," +
-                                    item.getPrice() + "," +
-                                    escapeCSV(item.getSupplier())
-                    );
-                });
-                System.out.println("Item deleted successfully from " + filePath);
-                return true;
-            } catch (IOException e) {
-                System.out.println("Error updating file after deletion: " + e.getMessage());
-                e.printStackTrace();
-            }
+    /**
+     * Persists a deletion for a caller that holds all items in memory
+     * @param items All remaining items, with the delete already applied via removeItem
+     * @param item The deleted item as it was before the delete
+     * @return true if the change was saved
+     */
+    public static boolean deleteItem(BinarySearchTree items, InventoryItem item) {
+        return getEngine().delete(items, item);
+    }
+
+    /**
+     * Removes an item from the in-memory items as the current ID mode requires
+     * @param items The items to delete from
+     * @param itemId The ID of the item to remove
+     * @return true if the item existed
+     */
+    public static boolean removeItem(BinarySearchTree items, int itemId) {
+        if (stableIds) {
+            return items.remove(itemId);
         }
+        boolean existed = items.find(itemId) != null;
+        applyDelete(items, itemId);
+        return existed;
+    }
 
-        return false;
+    /**
+     * Removes an item and shifts the IDs of all items with higher IDs down by one
+     * The removed ID was free, so the shifted IDs keep their order and the tree
+     * keeps its shape; the IDs are updated in place in O(n), without a rebuild
+     * @param items The items to delete from
+     * @param itemId The ID of the item to remove
+     * @return The tree holding the remaining items
+     */
+    static BinarySearchTree applyDelete(BinarySearchTree items, int itemId) {
+        if (!items.remove(itemId)) {
+            return items;
+        }
+
+        // Update IDs for items with higher IDs
+        items.inOrderTraversal(item -> {
+            if (item.getItemId() > itemId) {
+                item.setItemId(item.getItemId() - 1);
+            }
+        });
+        return items;
     }
 
-    // Update readAllItems method to read from a single file
-    public static BinarySearchTree readAllItems() {
-        ensureDirectoryExists();
-        String filePath = getFilePath();
-        BinarySearchTree items = new BinarySearchTree();
-        File file = new File(filePath);
+    /**
+     * Brings the stored data into its most compact form, e.g. folds the log into the snapshot
+     * Recovery after a restart replays the log, so this only bounds its size
+     */
+    public static void checkpoint() {
+        checkpoint(null);
+    }
 
-        if (!file.exists()) {
-            return items; // Return empty BST if file doesn't exist
+    /**
+     * Compacts the stored data using items already held in memory
+     * @param items All current items, or null to read them from storage
+     */
+    public static void checkpoint(BinarySearchTree items) {
+        getEngine().flush(items);
+    }
+
+    /**
+     * Returns the checkpoint statistics of the default engine
+     * @return The statistics, or null if the engine does not keep a log
+     */
+    public static CheckpointStats getCheckpointStats() {
+        StorageEngine current = getEngine();
+        if (current instanceof LogStructuredStorageEngine) {
+            return ((LogStructuredStorageEngine) current).getCheckpointStats();
         }
+        return null;
+    }
 
-        try (Scanner scanner = new Scanner(file)) {
-            // Skip header
-            if (scanner.hasNextLine()) {
-                scanner.nextLine();
-            }
+    /**
+     * Returns a value that changes whenever the stored data changes
+     * @return The storage stamp of the default engine
+     */
+    public static long getStorageStamp() {
+        return getEngine().getStamp();
+    }
+
+    /**
+     * Writes items to a CSV file in ID order
+     * @param items The items to write
+     * @param file The file to write
+     * @param checksums true to end each row with a CRC32C in a "crc" column, as the
+     *                  storage snapshot does; exported files leave it out
+     * @throws IOException If writing fails
+     */
+    static void writeCSV(BinarySearchTree items, File file, boolean checksums) throws IOException {
+        writeCSV(ItemCursor.of(items.iterator()), file, checksums);
+    }
 
-            // Read items
-            while (scanner.hasNextLine()) {
-                String line = scanner.nextLine();
-                InventoryItem item = parseCSVLine(line);
-                if (item != null) {
-                    items.add(item);
-                }
+    /**
+     * Writes the items of a cursor to a CSV file, one at a time
+     * @param items The cursor, read to the end but not closed
+     * @param file The file to write
+     * @param checksums true to end each row with a CRC32C in a "crc" column
+     * @throws IOException If the file cannot be written
+     */
+    static void writeCSV(ItemCursor items, File file, boolean checksums) throws IOException {
+        try (PrintWriter writer = new PrintWriter(new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)))) {
+            // Write header
+            if (checksums) {
+                writer.println(CSV_HEADER + "," + CHECKSUM_COLUMN);
+                CRC32C crc = new CRC32C();
+                items.forEachRemaining(item -> writer.println(formatCheckedLine(crc, null, item)));
+            } else {
+                writer.println(CSV_HEADER);
+                items.forEachRemaining(item -> writer.println(formatCSVLine(item)));
+            }
+            if (writer.checkError()) {
+                throw new IOException("Failed to write " + file.getPath());
             }
+        }
+    }
+
+    /**
+     * Exports items to a CSV file, whatever the storage engine
+     * @param items The items to export
+     * @param filePath The file to write
+     * @return true if the file was written
+     */
+    public static boolean exportCSV(BinarySearchTree items, String filePath) {
+        try {
+            writeCSV(items, new File(filePath), false);
+            return true;
+        } catch (IOException e) {
+            System.out.println("Error saving data: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    /**
+     * Exports the stored items to a CSV file without loading them all
+     * @param filePath The file to write
+     * @return true if the file was written
+     */
+    public static boolean exportStoredCSV(String filePath) {
+        try (ItemCursor cursor = getEngine().openCursor()) {
+            writeCSV(cursor, new File(filePath), false);
+            return true;
+        } catch (IOException | UncheckedIOException e) {
+            System.out.println("Error saving data: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    /**
+     * Reads the items of a CSV file, e.g. one written by exportCSV
+     * Malformed rows are reported and skipped
+     * @param filePath The file to read
+     * @return The items, empty if the file cannot be read
+     */
+    public static BinarySearchTree importCSV(String filePath) {
+        try {
+            return CSVLoader.load(new File(filePath));
         } catch (FileNotFoundException e) {
             System.out.println("File not found: " + filePath);
-        } catch (Exception e) {
+        } catch (IOException e) {
             System.out.println("Error reading data: " + e.getMessage());
             e.printStackTrace();
         }
+        return new BinarySearchTree();
+    }
 
-        return items;
+    // Update readAllItems method to read from a single file
+    public static BinarySearchTree readAllItems() {
+        return getEngine().load();
     }
 
     /**
@@ -160,8 +363,7 @@ public class FileManager {
      * @return The item if found, null otherwise
      */
     public static InventoryItem readItemById(int itemId) {
-        BinarySearchTree allItems = readAllItems();
-        return allItems.find(itemId);
+        return getEngine().get(itemId);
     }
 
     /**
@@ -170,31 +372,119 @@ public class FileManager {
      * @return The item if found, null otherwise
      */
     public static InventoryItem findItemByName(String name) {
-        BinarySearchTree allItems = readAllItems();
-        return allItems.findByName(name);
+        try (Stream<InventoryItem> items = streamAllItems()) {
+            return items.filter(item -> item.getName().equalsIgnoreCase(name)).findFirst().orElse(null);
+        }
     }
 
     /**
-     * Parses a CSV line into an InventoryItem
-     * @param line The CSV line to parse
-     * @return The parsed InventoryItem
+     * Streams all stored items in ascending ID order without loading them all
+     * Use in try-with-resources; short-circuiting operations stop reading early
+     * @return The stream
      */
-    private static InventoryItem parseCSVLine(String line) {
-        try {
-            String[] parts = line.split(",(?=([^\"]*\"[^\"]*\")*[^\"]*$)"); // Split by comma, respecting quotes
+    public static Stream<InventoryItem> streamAllItems() {
+        return getEngine().stream();
+    }
 
-            if (parts.length >= 6) {
-                int itemId = Integer.parseInt(parts[0].trim());
-                String name = unescapeCSV(parts[1].trim());
-                String category = unescapeCSV(parts[2].trim());
-                int quantity = Integer.parseInt(parts[3].trim());
-                double price = Double.parseDouble(parts[4].trim());
-                String supplier = unescapeCSV(parts[5].trim());
+    /**
+     * Formats an item as a CSV line
+     * @param item The item to format
+     * @return The CSV line, without line terminator
+     */
+    static String formatCSVLine(InventoryItem item) {
+        return item.getItemId() + "," +
+                escapeCSV(item.getName()) + "," +
+                escapeCSV(item.getCategory()) + "," +
+                item.getQuantity() + "," +
+                item.getPrice() + "," +
+                escapeCSV(item.getSupplier());
+    }
 
-                return new InventoryItem(itemId, name, category, quantity, price, supplier);
+    /**
+     * Formats a record as a CSV line followed by a checksum field
+     * The checksum is a CRC32C over the unescaped fields, each followed by a
+     * comma, so CSVReader.hasValidChecksum can verify it from the parsed fields
+     * @param crc The checksum to compute with, reset first
+     * @param prefix A field written before the item, e.g. a log record type, or null
+     * @param item The item to format
+     * @return The CSV line, without line terminator
+     */
+    static String formatCheckedLine(CRC32C crc, String prefix, InventoryItem item) {
+        crc.reset();
+        StringBuilder line = new StringBuilder(96);
+        if (prefix != null) {
+            appendChecked(line, crc, prefix);
+        }
+        appendChecked(line, crc, Integer.toString(item.getItemId()));
+        appendChecked(line, crc, item.getName());
+        appendChecked(line, crc, item.getCategory());
+        appendChecked(line, crc, Integer.toString(item.getQuantity()));
+        appendChecked(line, crc, Double.toString(item.getPrice()));
+        appendChecked(line, crc, item.getSupplier());
+        return line.append(Integer.toHexString((int) crc.getValue())).toString();
+    }
+
+    /**
+     * Formats a record of plain fields followed by a checksum field, as formatCheckedLine does
+     * @param crc The checksum to compute with, reset first
+     * @param fields The fields
+     * @return The CSV line, without line terminator
+     */
+    static String formatCheckedLine(CRC32C crc, String... fields) {
+        crc.reset();
+        StringBuilder line = new StringBuilder(32);
+        for (String field : fields) {
+            appendChecked(line, crc, field);
+        }
+        return line.append(Integer.toHexString((int) crc.getValue())).toString();
+    }
+
+    private static void appendChecked(StringBuilder line, CRC32C crc, String field) {
+        byte[] bytes = field == null ? new byte[0] : field.getBytes(StandardCharsets.UTF_8);
+        crc.update(bytes, 0, bytes.length);
+        crc.update(',');
+        line.append(escapeCSV(field)).append(',');
+    }
+
+    /**
+     * Builds an InventoryItem from the fields of the current CSV record
+     * @param csv The reader positioned on a record
+     * @param firstField The index of the itemId field
+     * @return The parsed InventoryItem, or null if the record is malformed
+     */
+    static InventoryItem readItem(CSVReader csv, int firstField) {
+        return readItem(csv, firstField, true, null);
+    }
+
+    /**
+     * Builds an InventoryItem from the fields of the current CSV record
+     * @param csv The reader positioned on a record
+     * @param firstField The index of the itemId field
+     * @param report true to print why a malformed record was rejected
+     * @param dictionary Dictionary to intern the category and supplier in, or null
+     * @return The parsed InventoryItem, or null if the record is malformed
+     */
+    static InventoryItem readItem(CSVReader csv, int firstField, boolean report, StringDictionary dictionary) {
+        if (csv.getFieldCount() < firstField + 6) {
+            if (report) {
+                System.out.println("Error parsing CSV record " + csv.getRecordNumber() + ": expected 6 fields");
             }
+            return null;
+        }
+
+        try {
+            int itemId = csv.getInt(firstField);
+            String name = csv.getString(firstField + 1);
+            String category = dictionary != null ? csv.getString(firstField + 2, dictionary) : csv.getString(firstField + 2);
+            int quantity = csv.getInt(firstField + 3);
+            double price = csv.getDouble(firstField + 4);
+            String supplier = dictionary != null ? csv.getString(firstField + 5, dictionary) : csv.getString(firstField + 5);
+
+            return new InventoryItem(itemId, name, category, quantity, price, supplier);
         } catch (NumberFormatException e) {
-            System.out.println("Error parsing CSV line: " + e.getMessage());
+            if (report) {
+                System.out.println("Error parsing CSV record " + csv.getRecordNumber() + ": " + e.getMessage());
+            }
         }
 
         return null;
@@ -210,49 +500,44 @@ public class FileManager {
             return "";
         }
 
-        // If the value contains comma, newline or double quote, wrap in quotes and escape internal quotes
-        if (value.contains(",") || value.contains("\"") || value.contains("\n")) {
+        // If the value contains comma, line break or double quote, or starts or ends with
+        // whitespace that readers trim from unquoted fields, wrap in quotes and escape internal quotes
+        if (value.contains(",") || value.contains("\"") || value.contains("\n") || value.contains("\r")
+                || hasEdgeWhitespace(value)) {
             return "\"" + value.replace("\"", "\"\"") + "\"";
         }
 
         return value;
     }
 
-    /**
-     * Unescapes CSV formatted string
-     * @param value The string to unescape
-     * @return The unescaped string
-     */
-    private static String unescapeCSV(String value) {
-        if (value == null) {
-            return "";
-        }
-
-        // If the value is wrapped in quotes, remove them and unescape internal quotes
-        if (value.startsWith("\"") && value.endsWith("\"")) {
-            return value.substring(1, value.length() - 1).replace("\"\"", "\"");
+    // Checks for a leading or trailing space or tab, which CSVReader trims from unquoted fields
+    private static boolean hasEdgeWhitespace(String value) {
+        if (value.isEmpty()) {
+            return false;
         }
+        char first = value.charAt(0);
+        char last = value.charAt(value.length() - 1);
+        return first == ' ' || first == '\t' || last == ' ' || last == '\t';
+    }
 
-        return value;
+    /**
+     * Returns the persistent item ID sequence
+     * @return The allocator of the default engine
+     */
+    public static IdAllocator getIdAllocator() {
+        return getEngine().getIdAllocator();
     }
 
     // Add method to get the next available ID
     public static int getNextAvailableId() {
-        BinarySearchTree items = readAllItems();
-        if (items.isEmpty()) {
-            return 1; // Start with 1 if no items exist
+        InventoryItem highest = readAllItems().findMax();
+        int highestId = highest == null ? 0 : highest.getItemId();
+        IdAllocator allocator = getIdAllocator();
+        if (stableIds) {
+            allocator.observe(highestId);
+        } else {
+            allocator.resumeAfter(highestId);
         }
-
-        // Find the highest ID
-        //A final array is used here because Java's lambdas require that //
-        // variables used inside them must be effectively final.
-        final int[] highestId = {0};
-        items.inOrderTraversal(item -> {
-            if (item.getItemId() > highestId[0]) {
-                highestId[0] = item.getItemId();
-            }
-        });
-
-        return highestId[0] + 1;
+        return allocator.peek();
     }
 }
@@ -0,0 +1,185 @@
+package src;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Hands out item IDs from a monotonic sequence persisted in a small file
+ * The file holds a high-water mark: every ID below it may already be in use.
+ * IDs are reserved in blocks, so the file is only rewritten once per block and
+ * allocating an ID is O(1). With stable IDs, the unused rest of the last block
+ * is skipped after a restart, which leaves a gap but never hands out an ID
+ * twice. When deletes renumber items, resumeAfter continues right after the
+ * highest ID in the data instead, keeping IDs contiguous.
+ * All methods are synchronized, so concurrent writers get distinct IDs.
+ * The file is replaced atomically through a temporary file, like a snapshot.
+ * Without a file the sequence lives in memory only.
+ */
+public class IdAllocator {
+
+    // Number of IDs covered by each write of the sequence file
+    private static final int BLOCK_SIZE = 64;
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File file;
+    // Next ID to hand out
+    private int next;
+    // IDs below this value are covered by the value on disk
+    private int persistedLimit;
+    // Set once an ID has been handed out, after which the sequence only moves back through reset
+    private boolean started;
+
+    /**
+     * Creates an allocator that continues the sequence stored in the file
+     * @param filePath The path of the sequence file, or null to keep the sequence in memory
+     */
+    public IdAllocator(String filePath) {
+        this.file = filePath == null ? null : new File(filePath);
+        this.next = Math.max(1, readLimit());
+        this.persistedLimit = next;
+    }
+
+    private int readLimit() {
+        if (file == null || !file.exists()) {
+            return 1;
+        }
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line = reader.readLine();
+            return line == null ? 1 : Integer.parseInt(line.trim());
+        } catch (IOException | NumberFormatException e) {
+            System.out.println("Error reading ID sequence, rebuilding it from the data: " + e.getMessage());
+            return 1;
+        }
+    }
+
+    /**
+     * Allocates the next ID
+     * @return The ID
+     */
+    public synchronized int nextId() {
+        return reserve(1);
+    }
+
+    /**
+     * Allocates a contiguous range of IDs, e.g. for a bulk import
+     * @param count The number of IDs to allocate
+     * @return The first ID of the range; the range ends before first + count
+     */
+    public synchronized int reserve(int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("Illegal count: " + count);
+        }
+        if (count > Integer.MAX_VALUE - next) {
+            throw new IllegalStateException("Item IDs exhausted");
+        }
+
+        int first = next;
+        next += count;
+        started = true;
+        if (next > persistedLimit) {
+            persist((int) Math.min(Integer.MAX_VALUE, (long) next + BLOCK_SIZE));
+        }
+        return first;
+    }
+
+    /**
+     * Returns the ID the next call to nextId will return, without allocating it
+     * @return The next ID
+     */
+    public synchronized int peek() {
+        return next;
+    }
+
+    /**
+     * Makes sure an ID already in use is never handed out
+     * Called with the highest ID of loaded data, which may have been written
+     * by another process or before the sequence file existed
+     * @param itemId An ID in use
+     */
+    public synchronized void observe(int itemId) {
+        if (itemId >= next) {
+            next = itemId + 1;
+            if (next > persistedLimit) {
+                persist(next);
+            }
+        }
+    }
+
+    /**
+     * Continues the sequence right after the highest ID in use, for the legacy
+     * mode where deletes renumber items and IDs stay dense
+     * The value on disk is only an upper bound of the IDs handed out, so the
+     * unused rest of the last block is handed out again instead of leaving a
+     * gap after every restart. Once this allocator has handed out an ID,
+     * which may not be in the data yet, it only moves forward, as in observe.
+     * @param highestId The highest ID in the loaded data, 0 if there is none
+     */
+    public synchronized void resumeAfter(int highestId) {
+        if (!started) {
+            next = Math.max(1, highestId + 1);
+        }
+        observe(highestId);
+    }
+
+    /**
+     * Moves the sequence back, for the legacy mode where deletes renumber items
+     * @param nextId The next ID to hand out
+     */
+    public synchronized void reset(int nextId) {
+        next = Math.max(1, nextId);
+        started = true;
+        persist(next);
+    }
+
+    // Writes the limit to a temporary file, forces it and renames it over the
+    // sequence file, so a crash never leaves a truncated or empty sequence
+    private void persist(int limit) {
+        if (file == null) {
+            persistedLimit = limit;
+            return;
+        }
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        File temp = new File(file.getPath() + TEMP_SUFFIX);
+        try {
+            try (FileOutputStream out = new FileOutputStream(temp)) {
+                out.write((limit + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+                out.getFD().sync();
+            }
+            try {
+                Files.move(temp.toPath(), file.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            forceDirectory(parent);
+            persistedLimit = limit;
+        } catch (IOException e) {
+            // Keep going from memory; the sequence is rebuilt from the data on the next start
+            System.out.println("Error saving ID sequence: " + e.getMessage());
+            if (temp.exists() && !temp.delete()) {
+                System.out.println("Could not remove temporary file: " + temp.getPath());
+            }
+        }
+    }
+
+    // Makes the rename itself durable; not every platform can open a directory, so failures are ignored
+    private static void forceDirectory(File directory) {
+        if (directory == null) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // The rename still happened, it may just not survive a power loss
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package src.datastructures;
+
+import src.InventoryItem;
+import java.io.Serializable;
+import java.util.function.Consumer;
+
+/**
+ * Hash index from item ID to item, keyed by primitive int
+ * Uses open addressing with linear probing over parallel key and item arrays,
+ * so a lookup is a multiply, a shift and usually one or two array reads, with
+ * no Integer boxing and no pointer chasing. Removal shifts later entries of the
+ * probe run back instead of leaving tombstones. Iteration is in slot order;
+ * ordered access by ID is left to BinarySearchTree.
+ */
+public class IdIndex implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final int DEFAULT_CAPACITY = 16;
+
+    // Parallel slot arrays; a null item marks an empty slot, so any int is a valid key
+    private int[] keys;
+    private InventoryItem[] items;
+    // 32 minus log2 of the capacity, for Fibonacci hashing
+    private int shift;
+    private int size;
+
+    public IdIndex() {
+        allocate(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates an index sized to hold the given number of items without resizing
+     * @param expectedSize The expected number of items
+     */
+    public IdIndex(int expectedSize) {
+        int capacity = DEFAULT_CAPACITY;
+        while (capacity < expectedSize * 2 && capacity < (1 << 30)) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        items = new InventoryItem[capacity];
+        shift = 32 - Integer.numberOfTrailingZeros(capacity);
+        size = 0;
+    }
+
+    /**
+     * Finds the item with the given ID
+     * @param itemId The ID to look up
+     * @return The item if found, null otherwise
+     */
+    public InventoryItem get(int itemId) {
+        int mask = keys.length - 1;
+        int slot = slot(itemId);
+        InventoryItem item;
+        while ((item = items[slot]) != null) {
+            if (keys[slot] == itemId) {
+                return item;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Checks if an item with the given ID is indexed
+     * @param itemId The ID to look up
+     * @return true if the ID is in the index
+     */
+    public boolean containsKey(int itemId) {
+        return get(itemId) != null;
+    }
+
+    /**
+     * Indexes an item under its current ID, replacing any item with the same ID
+     * @param item The item to index
+     * @return The item previously indexed under the ID, or null if the ID was free
+     */
+    public InventoryItem put(InventoryItem item) {
+        int itemId = item.getItemId();
+        int mask = keys.length - 1;
+        int slot = slot(itemId);
+        InventoryItem existing;
+        while ((existing = items[slot]) != null) {
+            if (keys[slot] == itemId) {
+                items[slot] = item;
+                return existing;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        keys[slot] = itemId;
+        items[slot] = item;
+        // Keep the load factor at or below 0.5
+        if (++size * 2 > keys.length) {
+            resize(keys.length * 2);
+        }
+        return null;
+    }
+
+    /**
+     * Removes the item with the given ID
+     * @param itemId The ID to remove
+     * @return The removed item, or null if the ID was not indexed
+     */
+    public InventoryItem remove(int itemId) {
+        int mask = keys.length - 1;
+        int slot = slot(itemId);
+        while (items[slot] != null && keys[slot] != itemId) {
+            slot = (slot + 1) & mask;
+        }
+        InventoryItem removed = items[slot];
+        if (removed == null) {
+            return null;
+        }
+
+        // Move back every later entry of the run whose home slot is not between the gap and it
+        int gap = slot;
+        int next = (gap + 1) & mask;
+        while (items[next] != null) {
+            int home = slot(keys[next]);
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                items[gap] = items[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        items[gap] = null;
+        size--;
+        return removed;
+    }
+
+    /**
+     * Applies the consumer to each indexed item, in no particular order
+     * @param consumer The consumer to process each item
+     */
+    public void forEach(Consumer<InventoryItem> consumer) {
+        for (InventoryItem item : items) {
+            if (item != null) {
+                consumer.accept(item);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of indexed items
+     * @return The size
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Checks if the index is empty
+     * @return true if no items are indexed
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes all items
+     */
+    public void clear() {
+        allocate(DEFAULT_CAPACITY);
+    }
+
+    // Fibonacci hashing: the top bits of the product spread sequential IDs across the table
+    private int slot(int itemId) {
+        return (itemId * 0x9E3779B9) >>> shift;
+    }
+
+    private void resize(int capacity) {
+        int[] oldKeys = keys;
+        InventoryItem[] oldItems = items;
+        int oldSize = size;
+        allocate(capacity);
+
+        int mask = capacity - 1;
+        for (int i = 0; i < oldItems.length; i++) {
+            if (oldItems[i] != null) {
+                int slot = slot(oldKeys[i]);
+                while (items[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                items[slot] = oldItems[i];
+            }
+        }
+        size = oldSize;
+    }
+}
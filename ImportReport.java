@@ -0,0 +1,100 @@
+package src;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Outcome of a bulk import: how many rows were imported or rejected, and why
+ * Only the first MAX_ERRORS messages are kept, so importing a file full of
+ * bad rows does not hold millions of messages in memory; the count is exact.
+ */
+public class ImportReport {
+
+    private static final int MAX_ERRORS = 1000;
+
+    private int imported;
+    private int rejected;
+    private int firstId;
+    private int lastId;
+    private final List<String> errors = new ArrayList<>();
+
+    /**
+     * Records a rejected row
+     * @param row The 1-based record number in the file, counting the header
+     * @param message Why the row was rejected
+     */
+    void addRowError(long row, String message) {
+        rejected++;
+        addError("Row " + row + ": " + message);
+    }
+
+    /**
+     * Records an error that is not tied to a row, e.g. an unreadable file
+     * @param message The error
+     */
+    void addError(String message) {
+        if (errors.size() < MAX_ERRORS) {
+            errors.add(message);
+        }
+    }
+
+    /**
+     * Records the items that were imported
+     * @param count The number of items
+     * @param firstId The ID assigned to the first item
+     */
+    void setImported(int count, int firstId) {
+        this.imported = count;
+        this.firstId = firstId;
+        this.lastId = count == 0 ? 0 : firstId + count - 1;
+    }
+
+    /**
+     * Returns the number of items imported
+     * @return The count, 0 if nothing could be saved
+     */
+    public int getImported() {
+        return imported;
+    }
+
+    /**
+     * Returns the number of rows rejected
+     * @return The count
+     */
+    public int getRejected() {
+        return rejected;
+    }
+
+    /**
+     * Returns the ID of the first imported item
+     * @return The ID, 0 if nothing was imported
+     */
+    public int getFirstId() {
+        return firstId;
+    }
+
+    /**
+     * Returns the ID of the last imported item; imported IDs are contiguous
+     * @return The ID, 0 if nothing was imported
+     */
+    public int getLastId() {
+        return lastId;
+    }
+
+    /**
+     * Returns the error messages, at most MAX_ERRORS of them
+     * @return The messages in file order
+     */
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    @Override
+    public String toString() {
+        String summary = "Imported " + imported + " items";
+        if (imported > 0) {
+            summary += " (IDs " + firstId + "-" + lastId + ")";
+        }
+        return summary + ", rejected " + rejected + " rows";
+    }
+}
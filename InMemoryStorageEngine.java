@@ -0,0 +1,74 @@
+package src;
+
+import src.datastructures.BinarySearchTree;
+import src.datastructures.CustomArrayList;
+
+/**
+ * Keeps all items in memory only, e.g. for tests or throwaway sessions
+ * The engine holds its own copies of the items, so changes a caller makes
+ * to its tree are only stored once they are reported through put or delete.
+ */
+public class InMemoryStorageEngine implements StorageEngine {
+
+    private final BinarySearchTree stored = new BinarySearchTree();
+    private final IdAllocator idAllocator = new IdAllocator(null);
+    // Incremented on every change
+    private long stamp;
+
+    @Override
+    public synchronized BinarySearchTree load() {
+        BinarySearchTree.Builder copies = new BinarySearchTree.Builder();
+        stored.inOrderTraversal(item -> copies.add(copy(item)));
+        return copies.build();
+    }
+
+    @Override
+    public synchronized InventoryItem get(int itemId) {
+        InventoryItem item = stored.find(itemId);
+        return item == null ? null : copy(item);
+    }
+
+    @Override
+    public synchronized boolean put(BinarySearchTree items, InventoryItem item) {
+        stored.add(copy(item));
+        stamp++;
+        return true;
+    }
+
+    @Override
+    public synchronized boolean putAll(BinarySearchTree items, CustomArrayList<InventoryItem> added) {
+        for (int i = 0; i < added.size(); i++) {
+            stored.add(copy(added.get(i)));
+        }
+        stamp++;
+        return true;
+    }
+
+    @Override
+    public synchronized boolean delete(BinarySearchTree items, InventoryItem item) {
+        // Mirror the caller's delete, including renumbering unless IDs are stable
+        FileManager.removeItem(stored, item.getItemId());
+        stamp++;
+        return true;
+    }
+
+    @Override
+    public void flush(BinarySearchTree items) {
+        // Nothing to compact
+    }
+
+    @Override
+    public synchronized long getStamp() {
+        return stamp;
+    }
+
+    @Override
+    public IdAllocator getIdAllocator() {
+        return idAllocator;
+    }
+
+    private static InventoryItem copy(InventoryItem item) {
+        return new InventoryItem(item.getItemId(), item.getName(), item.getCategory(),
+                item.getQuantity(), item.getPrice(), item.getSupplier());
+    }
+}
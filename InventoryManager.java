@@ -1,9 +1,13 @@
 package src;
 
 import src.datastructures.BinarySearchTree;
-import src.datastructures.SortingAlgorithms;
+import src.datastructures.IdIndex;
+import src.datastructures.NameIndex;
+import src.datastructures.ItemTable;
 import src.datastructures.CustomArrayList;
-import java.util.Comparator;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Manages inventory operations including CRUD operations
@@ -11,12 +15,149 @@ import java.util.Comparator;
  */
 public class InventoryManager {
 
+    // Where the items are persisted
+    private final StorageEngine engine;
+    // Resident copy of all items, loaded once and reused by every operation
+    private BinarySearchTree items;
+    // Primary index by ID over the resident items; the tree keeps them in ID order
+    private IdIndex ids;
+    // Storage stamp of the files the resident items were loaded from
+    private long loadedStamp;
+    // When true, no other process writes the files and they are never re-checked
+    private final boolean singleWriter;
+    // Guards the fields above and pendingWrites. Writers hold it while changing
+    // the items and queuing the change, but not while waiting for the change to
+    // become durable, so concurrent writers can share a commit
+    private final Object lock = new Object();
+    // Changes queued through this manager and not yet saved; the items are not reloaded meanwhile
+    private int pendingWrites;
+    // Columnar copy of the items and its rows in display order, built by viewAllItems
+    // and dropped by every change, so repeated views neither copy nor sort; guarded by the lock
+    private ItemTable table;
+    private int[] tableOrder;
+
+    /**
+     * Creates a manager on the default engine that reloads its items when the data files change
+     */
+    public InventoryManager() {
+        this(false);
+    }
+
+    /**
+     * Creates a manager on the default engine
+     * @param singleWriter true if this manager is the only writer of the data files,
+     *                     so the items are loaded once and never reloaded
+     */
+    public InventoryManager(boolean singleWriter) {
+        this(FileManager.getEngine(), singleWriter);
+    }
+
+    /**
+     * Creates a manager that reloads its items when the stored data changes
+     * @param engine The engine persisting the items
+     */
+    public InventoryManager(StorageEngine engine) {
+        this(engine, false);
+    }
+
+    /**
+     * Creates a manager
+     * @param engine The engine persisting the items
+     * @param singleWriter true if this manager is the only writer of the stored data,
+     *                     so the items are loaded once and never reloaded
+     */
+    public InventoryManager(StorageEngine engine, boolean singleWriter) {
+        this.engine = engine;
+        this.singleWriter = singleWriter;
+        if (engine instanceof LogStructuredStorageEngine) {
+            // Background checkpoints write the resident items rather than reading the files back
+            ((LogStructuredStorageEngine) engine).setBackgroundCheckpoint(this::checkpoint);
+        }
+    }
+
+    /**
+     * Returns the resident items, loading them on first use or after the stored data changed
+     * Callers hold the lock
+     * @return All items
+     */
+    private BinarySearchTree getItems() {
+        if (items == null || (!singleWriter && pendingWrites == 0 && engine.getStamp() != loadedStamp)) {
+            loadedStamp = engine.getStamp();
+            items = engine.load();
+            ids = indexIds(items);
+            dropTable();
+
+            // Never hand out an ID that is already in the data
+            InventoryItem highest = items.findMax();
+            int highestId = highest == null ? 0 : highest.getItemId();
+            if (FileManager.isStableIds()) {
+                engine.getIdAllocator().observe(highestId);
+            } else {
+                // Renumbered IDs stay dense, so continue right after the highest one
+                engine.getIdAllocator().resumeAfter(highestId);
+            }
+        }
+        return items;
+    }
+
+    /**
+     * Indexes items by ID
+     * @param items The items to index
+     * @return The index
+     */
+    private static IdIndex indexIds(BinarySearchTree items) {
+        IdIndex index = new IdIndex(items.size());
+        items.inOrderTraversal(index::put);
+        return index;
+    }
+
+    /**
+     * Waits for a change queued by this manager to be saved, then records the
+     * files' state, or drops the resident items if the change could not be saved
+     * Called without the lock; the change was counted in pendingWrites when queued
+     * @param pending The result of queuing the change
+     * @return true if the change was persisted
+     */
+    private boolean afterWrite(CompletableFuture<Boolean> pending) {
+        boolean saved = pending.join();
+        synchronized (lock) {
+            pendingWrites--;
+            if (!saved) {
+                items = null;
+            } else if (pendingWrites == 0) {
+                loadedStamp = engine.getStamp();
+            }
+        }
+        return saved;
+    }
+
     /**
      * Creates a new inventory item and saves it to file
+     * Safe to call from several threads; their log records are committed together.
+     * If a renumbering delete has handed the item's ID to another item since the
+     * ID was allocated, the item gets the next free ID instead.
      * @param item The item to create
+     * @return true if the item was saved, false if another item already has its name
      */
-    public void createItem(InventoryItem item) {
-        FileManager.writeItemToFile(item);
+    public boolean createItem(InventoryItem item) {
+        CompletableFuture<Boolean> saved;
+        synchronized (lock) {
+            BinarySearchTree current = getItems();
+            InventoryItem holder = ids.get(item.getItemId());
+            if (holder != null && !holder.getName().equalsIgnoreCase(item.getName())) {
+                item.setItemId(engine.getIdAllocator().nextId());
+            }
+            if (!current.addUnique(item)) {
+                return false;
+            }
+            ids.put(item);
+            // The ID may have been allocated before a renumbering delete moved the sequence back
+            engine.getIdAllocator().observe(item.getItemId());
+            dropTable();
+            pendingWrites++;
+            saved = engine.putAsync(current, item);
+        }
+        return afterWrite(saved);
     }
 
     /**
@@ -25,7 +166,10 @@ public class InventoryManager {
      * @return The item if found, null otherwise
      */
     public InventoryItem readItem(int id) {
-        return FileManager.readItemById(id);
+        synchronized (lock) {
+            getItems();
+            return ids.get(id);
+        }
     }
 
     /**
@@ -34,59 +178,295 @@ public class InventoryManager {
      * @return The item if found, null otherwise
      */
     public InventoryItem findItemByName(String name) {
-        return FileManager.findItemByName(name);
+        synchronized (lock) {
+            return getItems().findByName(name);
+        }
     }
 
     /**
      * Updates an existing item
      * @param id The ID of the item to update
      * @param updatedItem The updated item data
-     * @return true if update was successful
+     * @return true if update was successful, false if the item does not exist
+     *         or another item already has the new name
      */
     public boolean updateItem(int id, InventoryItem updatedItem) {
-        InventoryItem existingItem = readItem(id);
-        if (existingItem != null) {
+        CompletableFuture<Boolean> saved;
+        synchronized (lock) {
+            BinarySearchTree current = getItems();
+            if (ids.get(id) == null) {
+                return false;
+            }
             // Ensure the ID remains the same
             updatedItem.setItemId(id);
-            FileManager.writeItemToFile(updatedItem);
-            return true;
+            if (!current.addUnique(updatedItem)) {
+                return false;
+            }
+            ids.put(updatedItem);
+            dropTable();
+            pendingWrites++;
+            saved = engine.putAsync(current, updatedItem);
         }
-        return false;
+        return afterWrite(saved);
     }
 
-    // Update deleteItem method to use the new FileManager.deleteItemFromFile
+    /**
+     * Deletes an item
+     * Unless stable IDs are enabled, the IDs of all items after it shift down by one
+     * @param id The ID of the item to delete
+     * @return true if the item was deleted
+     */
     public boolean deleteItem(int id) {
-        InventoryItem item = readItem(id);
-        if (item != null) {
-            return FileManager.deleteItemFromFile(id);
+        CompletableFuture<Boolean> saved;
+        synchronized (lock) {
+            BinarySearchTree current = getItems();
+            InventoryItem item = ids.get(id);
+            if (item == null) {
+                return false;
+            }
+            // Keep the item as it was, the delete may renumber the items after it
+            InventoryItem deleted = new InventoryItem(item.getItemId(), item.getName(), item.getCategory(),
+                    item.getQuantity(), item.getPrice(), item.getSupplier());
+            FileManager.removeItem(current, id);
+            if (FileManager.isStableIds()) {
+                ids.remove(id);
+            } else {
+                // Every later item has a new ID
+                ids = indexIds(current);
+                // Items were renumbered down, so the sequence continues after the new highest ID
+                InventoryItem highest = current.findMax();
+                engine.getIdAllocator().reset(highest == null ? 1 : highest.getItemId() + 1);
+            }
+            dropTable();
+            pendingWrites++;
+            saved = engine.deleteAsync(current, deleted);
         }
-        return false;
+        return afterWrite(saved);
     }
 
-    // Update viewAllItems method to ensure sorting by category
-    public void viewAllItems() {
-        BinarySearchTree items = FileManager.readAllItems();
+    /**
+     * Imports all valid rows of a CSV file as new items
+     * The file needs a header row. Its columns are name, category, quantity,
+     * price and supplier, optionally preceded by an itemId column (as in files
+     * written by exportCSV) whose values are ignored. Rows are validated like
+     * CLI input: text fields must be non-empty and not numbers, quantity and
+     * price must not be negative, and names must be unique among existing items
+     * and earlier rows. Valid rows get a contiguous block of new IDs and are
+     * saved with a single write; invalid rows are skipped and reported.
+     * @param path The CSV file to import
+     * @return The report listing what was imported and which rows were rejected
+     */
+    public ImportReport importItems(Path path) {
+        synchronized (lock) {
+            return importItemsLocked(path);
+        }
+    }
+
+    private ImportReport importItemsLocked(Path path) {
+        ImportReport report = new ImportReport();
+        BinarySearchTree current = getItems();
+        CustomArrayList<InventoryItem> accepted = new CustomArrayList<>();
+        // Names of accepted rows, to catch duplicates within the file
+        NameIndex acceptedNames = new NameIndex();
+
+        try (CSVReader csv = CSVLoader.open(path.toFile())) {
+            if (!csv.readRecord()) {
+                report.addError("The file is empty");
+                return report;
+            }
+            String firstColumn = csv.getString(0);
+            int firstField;
+            if (firstColumn.equalsIgnoreCase("itemId")) {
+                firstField = 1;
+            } else if (firstColumn.equalsIgnoreCase("name")) {
+                firstField = 0;
+            } else {
+                report.addError("Unrecognized header: expected itemId or name as the first column");
+                return report;
+            }
 
-        if (items.isEmpty()) {
-            System.out.println("No items in inventory.");
-            return;
+            while (csv.readRecord()) {
+                String error = validateImportRow(csv, firstField);
+                if (error != null) {
+                    report.addRowError(csv.getRecordNumber(), error);
+                    continue;
+                }
+
+                String name = csv.getString(firstField);
+                InventoryItem existing = current.findByName(name);
+                if (existing != null) {
+                    report.addRowError(csv.getRecordNumber(),
+                            "an item named '" + name + "' already exists (ID: " + existing.getItemId() + ")");
+                    continue;
+                }
+                // The ID is assigned once all rows are known
+                InventoryItem item = new InventoryItem(0, name,
+                        csv.getString(firstField + 1, current.getDictionary()),
+                        csv.getInt(firstField + 2),
+                        csv.getDouble(firstField + 3),
+                        csv.getString(firstField + 4, current.getDictionary()));
+                if (acceptedNames.add(item) != null) {
+                    report.addRowError(csv.getRecordNumber(), "duplicate name '" + name + "' in the file");
+                    continue;
+                }
+                accepted.add(item);
+            }
+        } catch (IOException e) {
+            report.addError("Error reading " + path + ": " + e.getMessage());
+            return report;
+        }
+
+        if (accepted.size() == 0) {
+            return report;
+        }
+
+        // One reservation covers every row; the IDs are above all existing ones
+        int firstId = engine.getIdAllocator().reserve(accepted.size());
+        for (int i = 0; i < accepted.size(); i++) {
+            InventoryItem item = accepted.get(i);
+            item.setItemId(firstId + i);
+            current.add(item);
+            ids.put(item);
+        }
+        dropTable();
+
+        pendingWrites++;
+        if (afterWrite(CompletableFuture.completedFuture(engine.putAll(current, accepted)))) {
+            report.setImported(accepted.size(), firstId);
+        } else {
+            report.addError("The imported items could not be saved");
+        }
+        return report;
+    }
+
+    /**
+     * Checks the fields of an import row
+     * @param csv The reader positioned on the row
+     * @param firstField The index of the name field
+     * @return Why the row is invalid, or null if it is valid
+     */
+    private String validateImportRow(CSVReader csv, int firstField) {
+        if (csv.getFieldCount() < firstField + 5) {
+            return "expected " + (firstField + 5) + " fields but found " + csv.getFieldCount();
+        }
+        String[] labels = {"Name", "Category", "Supplier"};
+        int[] fields = {firstField, firstField + 1, firstField + 4};
+        for (int i = 0; i < fields.length; i++) {
+            String value = csv.getString(fields[i]);
+            if (value.isEmpty()) {
+                return labels[i] + " cannot be empty";
+            }
+            if (isNumber(value)) {
+                return labels[i] + " cannot be a number";
+            }
+        }
+
+        int quantity;
+        try {
+            quantity = csv.getInt(firstField + 2);
+        } catch (NumberFormatException e) {
+            return "Quantity is not a whole number: " + csv.getString(firstField + 2);
+        }
+        if (quantity < 0) {
+            return "Quantity cannot be negative";
         }
 
-        // Collect items into a CustomArrayList for sorting
-        CustomArrayList itemList = new CustomArrayList();
-        items.inOrderTraversal(itemList::add);
+        double price;
+        try {
+            price = csv.getDouble(firstField + 3);
+        } catch (NumberFormatException e) {
+            return "Price is not a number: " + csv.getString(firstField + 3);
+        }
+        if (price < 0 || Double.isNaN(price) || Double.isInfinite(price)) {
+            return "Price must be a non-negative number";
+        }
+        return null;
+    }
 
-        // Sort items by category and then by name using custom merge sort
-        SortingAlgorithms.mergeSort(itemList, new Comparator<InventoryItem>() {
-            @Override
-            public int compare(InventoryItem item1, InventoryItem item2) {
-                int categoryComparison = item1.getCategory().compareTo(item2.getCategory());
-                if (categoryComparison != 0) {
-                    return categoryComparison;
+    // Same test as the CLI (Double.parseDouble accepts it), without an exception for plain text
+    private static boolean isNumber(String value) {
+        char c = value.charAt(0);
+        if (c == '+' || c == '-') {
+            if (value.length() == 1) {
+                return false;
+            }
+            c = value.charAt(1);
+        }
+        if (!(c >= '0' && c <= '9') && c != '.' && c != 'N' && c != 'I') {
+            return false;
+        }
+        try {
+            Double.parseDouble(value);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Allocates a new item ID from the persistent sequence
+     * IDs are never reused, even if the item with the highest ID is deleted
+     * while stable IDs are enabled
+     * @return The new ID
+     */
+    public int getNextAvailableId() {
+        synchronized (lock) {
+            // Load first so the sequence has seen the IDs in the data
+            getItems();
+            return engine.getIdAllocator().nextId();
+        }
+    }
+
+    /**
+     * Compacts the stored data, e.g. folds pending log records into the snapshot
+     * Writes the resident items if they are loaded; holding the lock keeps them
+     * in step with the log while the snapshot is written
+     */
+    public void checkpoint() {
+        synchronized (lock) {
+            if (items != null) {
+                engine.flush(getItems());
+                if (pendingWrites == 0) {
+                    loadedStamp = engine.getStamp();
                 }
-                return item1.getName().compareTo(item2.getName());
+            } else {
+                engine.flush(null);
             }
-        });
+        }
+    }
+
+    /**
+     * Exports all items to a CSV file, whatever the storage engine
+     * @param filePath The file to write
+     * @return true if the file was written
+     */
+    public boolean exportCSV(String filePath) {
+        synchronized (lock) {
+            return FileManager.exportCSV(getItems(), filePath);
+        }
+    }
+
+    /**
+     * Prints all items sorted by category and then by name, followed by stock totals
+     */
+    public void viewAllItems() {
+        ItemTable table;
+        int[] rows;
+        synchronized (lock) {
+            BinarySearchTree items = getItems();
+            if (items.isEmpty()) {
+                System.out.println("No items in inventory.");
+                return;
+            }
+            if (this.table == null) {
+                // Copy the items into columns and sort row numbers by category and then by name
+                this.table = ItemTable.of(items);
+                tableOrder = this.table.sortByCategoryAndName();
+            }
+            // A change replaces the table rather than modifying it, so it can be read outside the lock
+            table = this.table;
+            rows = tableOrder;
+        }
 
         // Display items in a formatted table
         System.out.println("\n------------------------------ INVENTORY ITEMS ------------------------------");
@@ -94,18 +474,24 @@ public class InventoryManager {
                 "ID", "NAME", "CATEGORY", "QUANTITY", "PRICE", "SUPPLIER");
         System.out.println("--------------------------------------------------------------------------");
 
-        for (int i = 0; i < itemList.size(); i++) {
-            InventoryItem item = itemList.get(i);
+        for (int row : rows) {
             System.out.printf("%-10s %-20s %-15s %-10d $%-9.2f %-15s%n",
-                    item.getItemId(),
-                    truncateString(item.getName(), 20),
-                    truncateString(item.getCategory(), 15),
-                    item.getQuantity(),
-                    item.getPrice(),
-                    truncateString(item.getSupplier(), 15));
+                    table.getItemId(row),
+                    truncateString(table.getName(row), 20),
+                    truncateString(table.getCategory(row), 15),
+                    table.getQuantity(row),
+                    table.getPrice(row),
+                    truncateString(table.getSupplier(row), 15));
         }
         System.out.println("--------------------------------------------------------------------------");
-        System.out.println("Total Items: " + itemList.size());
+        System.out.println("Total Items: " + table.size());
+        System.out.printf("Total Quantity: %d, Stock Value: $%.2f%n", table.totalQuantity(), table.totalValue());
+    }
+
+    // Drops the table built by viewAllItems after a change to the items; callers hold the lock
+    private void dropTable() {
+        table = null;
+        tableOrder = null;
     }
 
     /**
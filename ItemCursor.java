@@ -0,0 +1,109 @@
+package src;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Forward-only cursor over stored items, read lazily from storage
+ * Only the current item is held in memory, so filters, exports and reports
+ * over a cursor run in constant memory whatever the size of the data.
+ * Closing the cursor early releases the underlying file.
+ * Read errors surface as UncheckedIOException from hasNext or next.
+ */
+public interface ItemCursor extends Iterator<InventoryItem>, Closeable {
+
+    /**
+     * Releases the underlying file; safe to call more than once
+     */
+    @Override
+    void close();
+
+    /**
+     * Returns a sequential stream over the remaining items
+     * Closing the stream closes the cursor, so use it in try-with-resources
+     * @return The stream
+     */
+    default Stream<InventoryItem> stream() {
+        Spliterator<InventoryItem> spliterator = Spliterators.spliteratorUnknownSize(this,
+                Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false).onClose(this::close);
+    }
+
+    /**
+     * Wraps an iterator over items already in memory
+     * @param iterator The iterator
+     * @return A cursor whose close does nothing
+     */
+    static ItemCursor of(Iterator<InventoryItem> iterator) {
+        return new ItemCursor() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public InventoryItem next() {
+                return iterator.next();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * Base class for cursors that read one item ahead
+     * Subclasses implement fetch and release
+     */
+    abstract class Lookahead implements ItemCursor {
+        private InventoryItem pending;
+        private boolean done;
+
+        /**
+         * Reads the next item
+         * @return The item, or null at the end of the data
+         */
+        protected abstract InventoryItem fetch();
+
+        /**
+         * Releases the underlying resources, called once
+         */
+        protected abstract void release();
+
+        @Override
+        public boolean hasNext() {
+            if (pending == null && !done) {
+                pending = fetch();
+                if (pending == null) {
+                    close();
+                }
+            }
+            return pending != null;
+        }
+
+        @Override
+        public InventoryItem next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            InventoryItem item = pending;
+            pending = null;
+            return item;
+        }
+
+        @Override
+        public void close() {
+            pending = null;
+            if (!done) {
+                done = true;
+                release();
+            }
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package src.datastructures;
+
+import src.InventoryItem;
+import java.io.Serializable;
+
+/**
+ * Columnar (struct-of-arrays) copy of a set of items
+ * Each attribute lives in its own array, indexed by row: IDs, quantities and
+ * prices as primitives, category and supplier as codes into a shared
+ * StringDictionary, and names as Strings. Aggregates over quantity and price
+ * are plain loops over primitive arrays, with no object per row to
+ * dereference. getRow builds an InventoryItem for a row on demand.
+ * The table is a snapshot; changes to the source items are not reflected.
+ */
+public class ItemTable implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private int[] ids;
+    private String[] names;
+    private int[] categories;
+    private int[] quantities;
+    private double[] prices;
+    private int[] suppliers;
+    private int size;
+    // Codes of the category and supplier columns
+    private final StringDictionary dictionary = new StringDictionary();
+
+    public ItemTable() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a table with room for the given number of rows
+     * @param capacity The initial capacity
+     */
+    public ItemTable(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Illegal Capacity: " + capacity);
+        }
+        allocate(capacity);
+    }
+
+    /**
+     * Copies the items of a tree into a new table, in ID order
+     * @param items The items
+     * @return The table
+     */
+    public static ItemTable of(BinarySearchTree items) {
+        ItemTable table = new ItemTable(items.size());
+        items.inOrderTraversal(table::add);
+        return table;
+    }
+
+    /**
+     * Appends a row holding the attributes of an item
+     * @param item The item
+     */
+    public void add(InventoryItem item) {
+        if (size == ids.length) {
+            grow(Math.max(ids.length * 2, DEFAULT_CAPACITY));
+        }
+        ids[size] = item.getItemId();
+        names[size] = item.getName();
+        categories[size] = dictionary.add(item.getCategory());
+        quantities[size] = item.getQuantity();
+        prices[size] = item.getPrice();
+        suppliers[size] = dictionary.add(item.getSupplier());
+        size++;
+    }
+
+    /**
+     * Builds an item from a row
+     * @param row The row
+     * @return A new item with the row's attributes
+     */
+    public InventoryItem getRow(int row) {
+        checkRow(row);
+        return new InventoryItem(ids[row], names[row], dictionary.get(categories[row]),
+                quantities[row], prices[row], dictionary.get(suppliers[row]));
+    }
+
+    public int getItemId(int row) {
+        checkRow(row);
+        return ids[row];
+    }
+
+    public String getName(int row) {
+        checkRow(row);
+        return names[row];
+    }
+
+    public String getCategory(int row) {
+        checkRow(row);
+        return dictionary.get(categories[row]);
+    }
+
+    /**
+     * Returns the dictionary code of a row's category
+     * @param row The row
+     * @return The code, an index into the arrays returned by the per-category aggregates
+     */
+    public int getCategoryCode(int row) {
+        checkRow(row);
+        return categories[row];
+    }
+
+    public int getQuantity(int row) {
+        checkRow(row);
+        return quantities[row];
+    }
+
+    public double getPrice(int row) {
+        checkRow(row);
+        return prices[row];
+    }
+
+    public String getSupplier(int row) {
+        checkRow(row);
+        return dictionary.get(suppliers[row]);
+    }
+
+    /**
+     * Returns the dictionary holding the category and supplier values by code
+     * @return The dictionary
+     */
+    public StringDictionary getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * Sums the quantity column
+     * @return The total number of units in stock
+     */
+    public long totalQuantity() {
+        long total = 0;
+        for (int row = 0; row < size; row++) {
+            total += quantities[row];
+        }
+        return total;
+    }
+
+    /**
+     * Sums quantity times price over all rows
+     * @return The total value of the stock
+     */
+    public double totalValue() {
+        double total = 0;
+        for (int row = 0; row < size; row++) {
+            total += quantities[row] * prices[row];
+        }
+        return total;
+    }
+
+    /**
+     * Counts the rows whose quantity is below a threshold
+     * @param threshold The threshold
+     * @return The number of rows
+     */
+    public int countQuantityBelow(int threshold) {
+        int count = 0;
+        for (int row = 0; row < size; row++) {
+            if (quantities[row] < threshold) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Sums the quantity column per category
+     * @return The totals, indexed by category code (see getCategoryCode); codes of suppliers hold 0
+     */
+    public long[] quantityByCategory() {
+        long[] totals = new long[dictionary.size()];
+        for (int row = 0; row < size; row++) {
+            totals[categories[row]] += quantities[row];
+        }
+        return totals;
+    }
+
+    /**
+     * Sums quantity times price per category
+     * @return The totals, indexed by category code (see getCategoryCode); codes of suppliers hold 0
+     */
+    public double[] valueByCategory() {
+        double[] totals = new double[dictionary.size()];
+        for (int row = 0; row < size; row++) {
+            totals[categories[row]] += quantities[row] * prices[row];
+        }
+        return totals;
+    }
+
+    /**
+     * Orders the rows by category and then by name
+     * The distinct categories are ranked once, so most comparisons are
+     * between two ints rather than two Strings
+     * @return The row numbers in display order
+     */
+    public int[] sortByCategoryAndName() {
+        int[] codes = new int[dictionary.size()];
+        for (int code = 0; code < codes.length; code++) {
+            codes[code] = code;
+        }
+        SortingAlgorithms.mergeSort(codes, (a, b) -> dictionary.get(a).compareTo(dictionary.get(b)));
+        int[] ranks = new int[codes.length];
+        for (int rank = 0; rank < codes.length; rank++) {
+            ranks[codes[rank]] = rank;
+        }
+
+        int[] rows = new int[size];
+        for (int row = 0; row < size; row++) {
+            rows[row] = row;
+        }
+        SortingAlgorithms.mergeSort(rows, (a, b) -> {
+            int categoryComparison = Integer.compare(ranks[categories[a]], ranks[categories[b]]);
+            if (categoryComparison != 0) {
+                return categoryComparison;
+            }
+            return names[a].compareTo(names[b]);
+        });
+        return rows;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row: " + row + ", Size: " + size);
+        }
+    }
+
+    private void allocate(int capacity) {
+        ids = new int[capacity];
+        names = new String[capacity];
+        categories = new int[capacity];
+        quantities = new int[capacity];
+        prices = new double[capacity];
+        suppliers = new int[capacity];
+    }
+
+    private void grow(int capacity) {
+        int[] oldIds = ids;
+        String[] oldNames = names;
+        int[] oldCategories = categories;
+        int[] oldQuantities = quantities;
+        double[] oldPrices = prices;
+        int[] oldSuppliers = suppliers;
+        allocate(capacity);
+        System.arraycopy(oldIds, 0, ids, 0, size);
+        System.arraycopy(oldNames, 0, names, 0, size);
+        System.arraycopy(oldCategories, 0, categories, 0, size);
+        System.arraycopy(oldQuantities, 0, quantities, 0, size);
+        System.arraycopy(oldPrices, 0, prices, 0, size);
+        System.arraycopy(oldSuppliers, 0, suppliers, 0, size);
+    }
+}
@@ -0,0 +1,164 @@
+package src;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Net effect of the log on a snapshot, for streaming the snapshot with the log applied
+ * Changes are keyed by snapshot ID rather than by the ID they had when logged.
+ * A renumbering delete removes one ID and shifts every higher ID down by one, so
+ * any series of them amounts to a set of removed snapshot IDs: an item keeps
+ * snapshot ID s and is currently numbered s minus the removed IDs below s. Only
+ * the changed items and the removed IDs are held in memory.
+ *
+ * A renumbering delete is only applied if the item at its ID still has the
+ * logged name (see WriteAheadLog.replay). When that item comes from the snapshot
+ * its name is not known until the snapshot has been read, so the delete is
+ * assumed to apply and the ID is noted; call resolve with a snapshot cursor
+ * and replay the log again until nothing is left unresolved.
+ */
+final class LogOverlay {
+    // Latest item per snapshot ID, null for an item deleted without renumbering
+    private final TreeMap<Integer, InventoryItem> changes = new TreeMap<>();
+    // Snapshot IDs removed by renumbering deletes, ascending
+    private int[] removed = new int[8];
+    private int removedCount;
+    // Names of snapshot items checked by renumbering deletes, null if the ID is not in the snapshot
+    private final Map<Integer, String> snapshotNames = new HashMap<>();
+    // Snapshot IDs whose names were needed but not known during this replay
+    private final Set<Integer> unresolved = new HashSet<>();
+
+    /**
+     * Applies a put record
+     * @param item The item as logged
+     */
+    void put(InventoryItem item) {
+        changes.put(toSnapshotId(item.getItemId()), item);
+    }
+
+    /**
+     * Applies a tombstone, a delete that does not renumber the other items
+     * @param itemId The ID as logged
+     */
+    void tombstone(int itemId) {
+        changes.put(toSnapshotId(itemId), null);
+    }
+
+    /**
+     * Applies a renumbering delete if the item at its ID has the logged name
+     * @param deleted The item as logged
+     */
+    void delete(InventoryItem deleted) {
+        int snapshotId = toSnapshotId(deleted.getItemId());
+        String name;
+        if (changes.containsKey(snapshotId)) {
+            InventoryItem current = changes.get(snapshotId);
+            name = current == null ? null : current.getName();
+        } else if (snapshotNames.containsKey(snapshotId)) {
+            name = snapshotNames.get(snapshotId);
+        } else {
+            // Checked once the snapshot has been read
+            unresolved.add(snapshotId);
+            name = deleted.getName();
+        }
+        if (name == null || !name.equalsIgnoreCase(deleted.getName())) {
+            return;
+        }
+
+        changes.remove(snapshotId);
+        int at = -Arrays.binarySearch(removed, 0, removedCount, snapshotId) - 1;
+        if (removedCount == removed.length) {
+            removed = Arrays.copyOf(removed, removedCount * 2);
+        }
+        System.arraycopy(removed, at, removed, at + 1, removedCount - at);
+        removed[at] = snapshotId;
+        removedCount++;
+    }
+
+    /**
+     * Checks if a renumbering delete needed the name of a snapshot item that is not known yet
+     * @return true if resolve and a new replay are needed
+     */
+    boolean hasUnresolved() {
+        return !unresolved.isEmpty();
+    }
+
+    /**
+     * Looks up the snapshot items that renumbering deletes referred to, then
+     * clears the replayed changes so the log can be replayed again
+     * @param snapshot A cursor over the snapshot, read to the highest unresolved ID
+     */
+    void resolve(ItemCursor snapshot) {
+        int highest = 0;
+        for (int itemId : unresolved) {
+            snapshotNames.put(itemId, null);
+            highest = Math.max(highest, itemId);
+        }
+        while (snapshot.hasNext()) {
+            InventoryItem item = snapshot.next();
+            if (unresolved.contains(item.getItemId())) {
+                snapshotNames.put(item.getItemId(), item.getName());
+            }
+            if (item.getItemId() >= highest) {
+                break;
+            }
+        }
+        unresolved.clear();
+        changes.clear();
+        removedCount = 0;
+    }
+
+    /**
+     * Checks if the log changes nothing
+     * @return true if there are no changes and no removed IDs
+     */
+    boolean isEmpty() {
+        return changes.isEmpty() && removedCount == 0;
+    }
+
+    /**
+     * Checks if the log replaces or removes a snapshot item
+     * @param snapshotId The item's ID in the snapshot
+     * @return true if the snapshot item must not be emitted
+     */
+    boolean supersedes(int snapshotId) {
+        return changes.containsKey(snapshotId)
+                || Arrays.binarySearch(removed, 0, removedCount, snapshotId) >= 0;
+    }
+
+    /**
+     * Returns the changes in snapshot ID order
+     * @return The changed items by snapshot ID, null values for deleted items
+     */
+    Iterator<Map.Entry<Integer, InventoryItem>> changes() {
+        return changes.entrySet().iterator();
+    }
+
+    /**
+     * Maps a snapshot ID that was not removed to the current ID
+     * @param snapshotId The ID in the snapshot
+     * @return The ID after the renumbering deletes
+     */
+    int toCurrentId(int snapshotId) {
+        int below = -Arrays.binarySearch(removed, 0, removedCount, snapshotId) - 1;
+        return snapshotId - below;
+    }
+
+    /**
+     * Maps a current ID to the snapshot ID that is numbered so after the renumbering deletes
+     * @param currentId The current ID
+     * @return The snapshot ID
+     */
+    private int toSnapshotId(int currentId) {
+        int snapshotId = currentId;
+        for (int i = 0; i < removedCount && removed[i] <= snapshotId; i++) {
+            snapshotId++;
+        }
+        return snapshotId;
+    }
+}
@@ -0,0 +1,459 @@
+package src;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import src.datastructures.BinarySearchTree;
+import src.datastructures.CustomArrayList;
+
+/**
+ * Records each change as one record in a WriteAheadLog next to a snapshot
+ * A change costs one append instead of a rewrite of all items. Loading reads
+ * the snapshot and replays the log on top of it; the log is folded into the
+ * snapshot by flush(), and automatically once it outgrows the snapshot by the
+ * checkpoint ratio. With a checkpoint interval, a background thread does the
+ * automatic checkpoints instead of the writers, and also folds any records
+ * older than the interval, which bounds the recovery time. Appends are
+ * group-committed by the log, so concurrent writers share each fsync.
+ */
+public class LogStructuredStorageEngine implements StorageEngine {
+
+    private static final String LOG_FILE = "inventory_data.log";
+
+    // The snapshot is rebuilt once the log grows past this size and past the size of the snapshot itself
+    private static final long MIN_CHECKPOINT_LOG_SIZE = 64 * 1024;
+    private static final double CHECKPOINT_RATIO = getRatioProperty("inventory.checkpointRatio", 1.0);
+    private static final long CHECKPOINT_INTERVAL_MILLIS = Long.getLong("inventory.checkpointIntervalMillis", 0);
+
+    private final SnapshotStorageEngine snapshot;
+    private final WriteAheadLog log;
+    // Appends share the read lock so they can be group-committed together; a
+    // checkpoint takes the write lock so no record lands between writing the
+    // snapshot and truncating the log
+    private final ReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+
+    private final double checkpointRatio;
+    private final long checkpointIntervalMillis;
+    // Background checkpoint thread, null without a checkpoint interval
+    private final Thread compactor;
+    // Guards checkpointRequested and closed
+    private final Object compactorLock = new Object();
+    private boolean checkpointRequested;
+    private boolean closed;
+    // Runs a background checkpoint from items already in memory; null to load them from the files
+    private volatile Runnable backgroundCheckpoint;
+
+    // Checkpoint statistics, guarded by this
+    private int checkpoints;
+    private long lastDurationMillis;
+    private long lastBytesReclaimed;
+    private long totalBytesReclaimed;
+    private long lastCheckpointTime;
+    // A checkpoint leaves the stored items unchanged, so the stamp seen before
+    // it is still reported while the files are as the checkpoint left them
+    private long stampBeforeCheckpoint;
+    private long stampAfterCheckpoint;
+
+    /**
+     * Creates an engine that logs changes next to the given snapshot
+     * The checkpoint triggers come from the inventory.checkpointRatio and
+     * inventory.checkpointIntervalMillis properties
+     * @param snapshot The engine holding the snapshot; its directory also holds the log
+     */
+    public LogStructuredStorageEngine(SnapshotStorageEngine snapshot) {
+        this(snapshot, CHECKPOINT_RATIO, CHECKPOINT_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Creates an engine that logs changes next to the given snapshot
+     * @param snapshot The engine holding the snapshot; its directory also holds the log
+     * @param checkpointRatio Checkpoint once the log is this many times the size of the snapshot
+     * @param checkpointIntervalMillis If positive, checkpoint in a background thread, at the
+     *                                 latest this long after the previous checkpoint
+     */
+    public LogStructuredStorageEngine(SnapshotStorageEngine snapshot, double checkpointRatio,
+                                      long checkpointIntervalMillis) {
+        this.snapshot = snapshot;
+        this.log = new WriteAheadLog(new File(snapshot.getDirectory(), LOG_FILE).getPath());
+        this.checkpointRatio = checkpointRatio;
+        this.checkpointIntervalMillis = checkpointIntervalMillis;
+        if (checkpointIntervalMillis > 0) {
+            compactor = new Thread(this::runCompactor, "inventory-checkpoint");
+            compactor.setDaemon(true);
+            compactor.start();
+        } else {
+            compactor = null;
+        }
+    }
+
+    @Override
+    public BinarySearchTree load() {
+        BinarySearchTree items = snapshot.load();
+
+        // Apply changes made since the last checkpoint
+        log.replay(items);
+        return items;
+    }
+
+    /**
+     * Streams the snapshot with the log applied on the fly
+     * Only the items changed since the last checkpoint are held in memory.
+     * Renumbering deletes of snapshot items cost one extra partial read of the
+     * snapshot to check the names they expect (see LogOverlay).
+     * @return The cursor
+     */
+    @Override
+    public ItemCursor openCursor() {
+        LogOverlay overlay = new LogOverlay();
+        ItemCursor base;
+        // Hold off checkpoints so the log read matches the snapshot opened
+        checkpointLock.readLock().lock();
+        try {
+            log.replayOverlay(overlay);
+            while (overlay.hasUnresolved()) {
+                try (ItemCursor names = snapshot.openCursor()) {
+                    overlay.resolve(names);
+                }
+                log.replayOverlay(overlay);
+            }
+            base = snapshot.openCursor();
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+        return overlay.isEmpty() ? base : new OverlayCursor(base, overlay);
+    }
+
+    /**
+     * Merges an ascending snapshot cursor with the changes from the log
+     * A changed item is emitted from the overlay at its position in snapshot ID
+     * order, and left out if the overlay marks it deleted; every item is emitted
+     * with its ID after the renumbering deletes in the log
+     */
+    private static class OverlayCursor extends ItemCursor.Lookahead {
+        private final ItemCursor base;
+        private final LogOverlay overlay;
+        private final Iterator<Map.Entry<Integer, InventoryItem>> changes;
+        private InventoryItem nextBase;
+        private Map.Entry<Integer, InventoryItem> nextChange;
+
+        OverlayCursor(ItemCursor base, LogOverlay overlay) {
+            this.base = base;
+            this.overlay = overlay;
+            this.changes = overlay.changes();
+        }
+
+        @Override
+        protected InventoryItem fetch() {
+            while (true) {
+                if (nextBase == null && base.hasNext()) {
+                    nextBase = base.next();
+                    if (overlay.supersedes(nextBase.getItemId())) {
+                        // Replaced or removed by the log
+                        nextBase = null;
+                        continue;
+                    }
+                }
+                if (nextChange == null && changes.hasNext()) {
+                    nextChange = changes.next();
+                }
+
+                if (nextChange != null && (nextBase == null || nextChange.getKey() < nextBase.getItemId())) {
+                    InventoryItem item = nextChange.getValue();
+                    int snapshotId = nextChange.getKey();
+                    nextChange = null;
+                    if (item != null) {
+                        item.setItemId(overlay.toCurrentId(snapshotId));
+                        return item;
+                    }
+                } else if (nextBase != null) {
+                    InventoryItem item = nextBase;
+                    nextBase = null;
+                    item.setItemId(overlay.toCurrentId(item.getItemId()));
+                    return item;
+                } else {
+                    return null;
+                }
+            }
+        }
+
+        @Override
+        protected void release() {
+            base.close();
+        }
+    }
+
+    @Override
+    public boolean put(BinarySearchTree items, InventoryItem item) {
+        return putAsync(items, item).join();
+    }
+
+    /**
+     * Queues a log record for the item; concurrent writers share the fsync of its batch
+     * @param items All current items, already including the change
+     * @param item The created or updated item
+     * @return A future completed with true once the record is durable
+     */
+    @Override
+    public CompletableFuture<Boolean> putAsync(BinarySearchTree items, InventoryItem item) {
+        if (!snapshot.checkWritable()) {
+            // The resident items lack the unreadable snapshot, so nothing based on them is saved
+            return CompletableFuture.completedFuture(false);
+        }
+        snapshot.ensureDirectoryExists();
+        CompletableFuture<Void> durable;
+        checkpointLock.readLock().lock();
+        try {
+            durable = log.appendPutAsync(item);
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+        checkpointIfNeeded(items);
+        return durable.handle((ignored, e) -> {
+            if (e != null) {
+                System.out.println("Error saving data: " + e.getMessage());
+                e.printStackTrace();
+                return false;
+            }
+            System.out.println("Item saved successfully to " + log.getPath());
+            return true;
+        });
+    }
+
+    /**
+     * Writes a new snapshot instead of one log record per item
+     * The snapshot includes everything in the log, so the log is discarded
+     * @param items All current items, already including the new ones
+     * @param added The new items
+     * @return true if the change was saved
+     */
+    @Override
+    public boolean putAll(BinarySearchTree items, CustomArrayList<InventoryItem> added) {
+        checkpointLock.writeLock().lock();
+        try {
+            log.sync();
+            if (!snapshot.writeAll(items)) {
+                return false;
+            }
+            log.truncate();
+            System.out.println(added.size() + " items saved successfully to " + snapshot.getSnapshotFile().getPath());
+            return true;
+        } catch (IOException e) {
+            System.out.println("Error saving data: " + e.getMessage());
+            return false;
+        } finally {
+            checkpointLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean delete(BinarySearchTree items, InventoryItem item) {
+        return deleteAsync(items, item).join();
+    }
+
+    /**
+     * Queues a tombstone, or a renumbering delete record unless IDs are stable
+     * @param items All remaining items, with the delete already applied
+     * @param item The deleted item as it was before the delete
+     * @return A future completed with true once the record is durable
+     */
+    @Override
+    public CompletableFuture<Boolean> deleteAsync(BinarySearchTree items, InventoryItem item) {
+        if (!snapshot.checkWritable()) {
+            // The resident items lack the unreadable snapshot, so nothing based on them is saved
+            return CompletableFuture.completedFuture(false);
+        }
+        snapshot.ensureDirectoryExists();
+        CompletableFuture<Void> durable;
+        checkpointLock.readLock().lock();
+        try {
+            if (FileManager.isStableIds()) {
+                durable = log.appendTombstoneAsync(item.getItemId());
+            } else {
+                durable = log.appendDeleteAsync(item);
+            }
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+        checkpointIfNeeded(items);
+        return durable.handle((ignored, e) -> {
+            if (e != null) {
+                System.out.println("Error updating file after deletion: " + e.getMessage());
+                e.printStackTrace();
+                return false;
+            }
+            System.out.println("Item deleted successfully from " + log.getPath());
+            return true;
+        });
+    }
+
+    /**
+     * Rewrites the snapshot with all current items and discards the log
+     * Recovery after a restart replays the log, so this only bounds its size
+     * @param items All current items, or null to load them from storage
+     */
+    @Override
+    public void flush(BinarySearchTree items) {
+        checkpointLock.writeLock().lock();
+        try {
+            // Appends no longer wait for their records under the read lock, so wait here
+            log.sync();
+            if (log.isEmpty()) {
+                return;
+            }
+
+            long start = System.nanoTime();
+            long stamp = getStamp();
+            long oldSize = log.length() + snapshot.getSnapshotFile().length();
+            if (items == null) {
+                items = load();
+            }
+            if (snapshot.writeAll(items)) {
+                log.truncate();
+                recordCheckpoint(start, stamp, oldSize);
+            }
+        } catch (IOException e) {
+            // The log is left as it is and replayed as usual
+            System.out.println("Error during checkpoint: " + e.getMessage());
+        } finally {
+            checkpointLock.writeLock().unlock();
+        }
+    }
+
+    private synchronized void recordCheckpoint(long start, long stamp, long oldSize) {
+        checkpoints++;
+        lastDurationMillis = (System.nanoTime() - start) / 1_000_000;
+        lastBytesReclaimed = oldSize - snapshot.getSnapshotFile().length();
+        totalBytesReclaimed += lastBytesReclaimed;
+        lastCheckpointTime = System.currentTimeMillis();
+        stampBeforeCheckpoint = stamp;
+        stampAfterCheckpoint = getFileStamp();
+    }
+
+    // Checkpoint once replaying the log would cost more than reading the snapshot
+    private void checkpointIfNeeded(BinarySearchTree items) {
+        long logSize = log.length();
+        if (logSize <= MIN_CHECKPOINT_LOG_SIZE || logSize <= checkpointRatio * snapshot.getSnapshotFile().length()) {
+            return;
+        }
+
+        if (compactor == null) {
+            flush(items);
+        } else {
+            // Leave the work to the background thread so the writer returns at once
+            synchronized (compactorLock) {
+                checkpointRequested = true;
+                compactorLock.notifyAll();
+            }
+        }
+    }
+
+    private void runCompactor() {
+        while (true) {
+            synchronized (compactorLock) {
+                long deadline = System.currentTimeMillis() + checkpointIntervalMillis;
+                try {
+                    long wait = checkpointIntervalMillis;
+                    while (!checkpointRequested && !closed && wait > 0) {
+                        compactorLock.wait(wait);
+                        wait = deadline - System.currentTimeMillis();
+                    }
+                } catch (InterruptedException e) {
+                    // Nothing interrupts the compactor; if something does, stop
+                    return;
+                }
+                if (closed) {
+                    return;
+                }
+                checkpointRequested = false;
+            }
+
+            try {
+                // Does nothing if the log is empty
+                Runnable checkpoint = backgroundCheckpoint;
+                if (checkpoint != null) {
+                    checkpoint.run();
+                } else {
+                    flush(null);
+                }
+            } catch (RuntimeException e) {
+                System.out.println("Error during background checkpoint: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Lets the background checkpoint write the snapshot from items already in memory
+     * instead of loading the snapshot and replaying the log on every cycle
+     * The task must call flush with items that include every logged change, holding
+     * whatever lock keeps writers from changing them meanwhile. The last task set wins.
+     * @param checkpoint The task, or null to load the items from the files
+     */
+    public void setBackgroundCheckpoint(Runnable checkpoint) {
+        backgroundCheckpoint = checkpoint;
+    }
+
+    /**
+     * Returns statistics of the checkpoints made so far
+     * @return The statistics, including the current log and snapshot sizes
+     */
+    public synchronized CheckpointStats getCheckpointStats() {
+        return new CheckpointStats(checkpoints, log.length(), snapshot.getSnapshotFile().length(),
+                lastDurationMillis, lastBytesReclaimed, totalBytesReclaimed, lastCheckpointTime);
+    }
+
+    @Override
+    public synchronized long getStamp() {
+        long stamp = getFileStamp();
+        return stamp == stampAfterCheckpoint ? stampBeforeCheckpoint : stamp;
+    }
+
+    private long getFileStamp() {
+        File logFile = new File(log.getPath());
+        long stamp = snapshot.getStamp();
+        stamp = 31 * stamp + logFile.lastModified();
+        stamp = 31 * stamp + logFile.length();
+        return stamp;
+    }
+
+    private static double getRatioProperty(String name, double defaultValue) {
+        String value = System.getProperty(name);
+        if (value != null) {
+            try {
+                return Double.parseDouble(value);
+            } catch (NumberFormatException e) {
+                System.out.println("Invalid value for " + name + ": " + value);
+            }
+        }
+        return defaultValue;
+    }
+
+    @Override
+    public IdAllocator getIdAllocator() {
+        return snapshot.getIdAllocator();
+    }
+
+    /**
+     * Stops the background checkpoints, waits for queued log records to become durable and closes the log
+     */
+    @Override
+    public void close() {
+        if (compactor != null) {
+            synchronized (compactorLock) {
+                closed = true;
+                compactorLock.notifyAll();
+            }
+            try {
+                compactor.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        log.close();
+        snapshot.close();
+    }
+}
@@ -1,12 +1,24 @@
 package src;
 
+import java.nio.file.Paths;
+
 /**
  * Main entry point for the Inventory Management System
  * Initializes the system with dummy data and starts the CLI
+ * Run with "--import <file.csv>" to bulk import a CSV file and exit
  */
 
 public class Main {
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--import")) {
+            if (args.length != 2) {
+                System.out.println("Usage: java src.Main --import <file.csv>");
+                return;
+            }
+            importFile(args[1]);
+            return;
+        }
+
         System.out.println("Starting Inventory Management System...");
 
         // Add dummy data
@@ -17,6 +29,19 @@ public class Main {
         cli.showMenu();
     }
 
+    /**
+     * Imports a CSV file without starting the menu
+     * @param path The CSV file to import
+     */
+    private static void importFile(String path) {
+        InventoryManager manager = new InventoryManager(true);
+        long start = System.nanoTime();
+        ImportReport report = manager.importItems(Paths.get(path));
+        CLI.printImportReport(report);
+        System.out.println("Import took " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        FileManager.getEngine().close();
+    }
+
     // Update the addDummyData method to ensure all data meets validation requirements
     private static void addDummyData() {
         InventoryManager manager = new InventoryManager();
@@ -0,0 +1,199 @@
+package src.datastructures;
+
+import src.InventoryItem;
+import java.io.Serializable;
+
+/**
+ * Case-insensitive hash index from item name to item
+ * Uses open addressing with linear probing. Hashing folds case per character,
+ * so lookups match String.equalsIgnoreCase without allocating a lowercase copy.
+ * If several items share a name (possible in files written before names were
+ * enforced unique) the index maps the name to one of them and counts the rest.
+ */
+public class NameIndex implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final int DEFAULT_CAPACITY = 16;
+
+    // Parallel slot arrays; a null key marks an empty slot
+    private String[] keys;
+    private int[] hashes;
+    private InventoryItem[] items;
+    private int[] counts;
+    private int size;
+
+    public NameIndex() {
+        allocate(DEFAULT_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        keys = new String[capacity];
+        hashes = new int[capacity];
+        items = new InventoryItem[capacity];
+        counts = new int[capacity];
+        size = 0;
+    }
+
+    /**
+     * Finds the item with the given name, ignoring case
+     * @param name The name to look up
+     * @return The item if found, null otherwise
+     */
+    public InventoryItem get(String name) {
+        int slot = findSlot(name, hash(name));
+        return keys[slot] == null ? null : items[slot];
+    }
+
+    /**
+     * Indexes an item under its name
+     * @param item The item to index
+     * @return The item already indexed under the same name, or null if the name was free
+     */
+    public InventoryItem add(InventoryItem item) {
+        String name = item.getName();
+        int hash = hash(name);
+        int slot = findSlot(name, hash);
+        if (keys[slot] != null) {
+            counts[slot]++;
+            return items[slot];
+        }
+
+        keys[slot] = name;
+        hashes[slot] = hash;
+        items[slot] = item;
+        counts[slot] = 1;
+        if (++size * 2 > keys.length) {
+            resize(keys.length * 2);
+        }
+        return null;
+    }
+
+    /**
+     * Removes an item from the index
+     * @param item The item to remove, indexed under its current name
+     * @return true if other items still carry the name but the index pointed at the
+     *         removed one, in which case the caller must relink one of them
+     */
+    public boolean remove(InventoryItem item) {
+        int slot = findSlot(item.getName(), hash(item.getName()));
+        if (keys[slot] == null) {
+            return false;
+        }
+
+        if (--counts[slot] > 0) {
+            if (items[slot] == item) {
+                items[slot] = null;
+                return true;
+            }
+            return false;
+        }
+
+        deleteSlot(slot);
+        return false;
+    }
+
+    /**
+     * Points an indexed name at another item carrying it
+     * @param item The item that should now be returned for its name
+     */
+    public void relink(InventoryItem item) {
+        int slot = findSlot(item.getName(), hash(item.getName()));
+        if (keys[slot] != null) {
+            items[slot] = item;
+        }
+    }
+
+    /**
+     * Returns the number of distinct names
+     * @return The size
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Clears the index
+     */
+    public void clear() {
+        allocate(DEFAULT_CAPACITY);
+    }
+
+    // Returns the slot holding the name, or the empty slot where it would go
+    private int findSlot(String name, int hash) {
+        int mask = keys.length - 1;
+        int slot = hash & mask;
+        while (keys[slot] != null && (hashes[slot] != hash || !keys[slot].equalsIgnoreCase(name))) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    // Backward-shift deletion keeps probe sequences intact without tombstones
+    private void deleteSlot(int slot) {
+        int mask = keys.length - 1;
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while (keys[next] != null) {
+            int home = hashes[next] & mask;
+            // Move the entry back if the hole lies on its probe path
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                hashes[hole] = hashes[next];
+                items[hole] = items[next];
+                counts[hole] = counts[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[hole] = null;
+        hashes[hole] = 0;
+        items[hole] = null;
+        counts[hole] = 0;
+        size--;
+    }
+
+    private void resize(int capacity) {
+        String[] oldKeys = keys;
+        int[] oldHashes = hashes;
+        InventoryItem[] oldItems = items;
+        int[] oldCounts = counts;
+        int oldSize = size;
+
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                // Keys are distinct, so only an empty slot is needed
+                int slot = oldHashes[i] & (capacity - 1);
+                while (keys[slot] != null) {
+                    slot = (slot + 1) & (capacity - 1);
+                }
+                keys[slot] = oldKeys[i];
+                hashes[slot] = oldHashes[i];
+                items[slot] = oldItems[i];
+                counts[slot] = oldCounts[i];
+            }
+        }
+        size = oldSize;
+    }
+
+    /**
+     * Case-insensitive hash consistent with String.equalsIgnoreCase
+     * @param name The name to hash
+     * @return The hash code
+     */
+    private static int hash(String name) {
+        int h = 0;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c < 128) {
+                // ASCII fast path
+                if (c >= 'A' && c <= 'Z') {
+                    c += 'a' - 'A';
+                }
+            } else {
+                c = Character.toLowerCase(Character.toUpperCase(c));
+            }
+            h = 31 * h + c;
+        }
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,425 @@
+package src.datastructures;
+
+import src.InventoryItem;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Item store that keeps its rows outside the Java heap, in direct ByteBuffers
+ * Every item is a fixed 40-byte row in a chunk of rows; names are UTF-8 bytes
+ * in a separate string arena, and category and supplier are codes into a
+ * small on-heap StringDictionary. An open-addressing hash index from ID to
+ * row lives off-heap too. The heap holds a few dozen objects whatever the
+ * number of items, so the garbage collector has nothing to trace or copy for
+ * them; an InventoryItem is only created by get, scan and forEach.
+ * Rows freed by remove are reused. Replaced and removed names stay in the
+ * arena as garbage until it outweighs the live names, when the arena is
+ * rewritten. Not thread-safe.
+ */
+public class OffHeapItemStore {
+
+    // Row layout
+    private static final int ROW_SIZE = 40;
+    private static final int ID = 0;
+    private static final int QUANTITY = 4;
+    private static final int PRICE = 8;
+    private static final int NAME_REF = 16;
+    private static final int NAME_LENGTH = 24;
+    private static final int CATEGORY = 28;
+    private static final int SUPPLIER = 32;
+    // 1 for a live row; a free row holds the next free row in QUANTITY
+    private static final int STATE = 36;
+
+    private static final int ROWS_PER_CHUNK = 1 << 16;
+    private static final int ARENA_CHUNK_SIZE = 1 << 22;
+    // Arenas below this size are never worth compacting
+    private static final long MIN_COMPACT_ARENA_SIZE = 1 << 20;
+    private static final int DEFAULT_INDEX_CAPACITY = 1 << 10;
+    // Slots of 8 bytes in a buffer of at most 1 GiB
+    private static final int MAX_INDEX_CAPACITY = 1 << 27;
+
+    private ByteBuffer[] rowChunks = new ByteBuffer[4];
+    // Rows ever allocated; rows below this are live or on the free list
+    private int rowCount;
+    private int freeRow = -1;
+    private int size;
+
+    // Arena chunks; a name reference is the chunk number in the high and the position in the low 32 bits
+    private ByteBuffer[] arenaChunks = new ByteBuffer[4];
+    private int arenaChunkCount;
+    private long arenaUsed;
+    private long arenaLive;
+
+    // Hash index slots of two ints: the ID and the row + 1, 0 marking an empty slot
+    private ByteBuffer index;
+    private int indexShift;
+
+    private final StringDictionary dictionary = new StringDictionary();
+
+    public OffHeapItemStore() {
+        allocateIndex(DEFAULT_INDEX_CAPACITY);
+    }
+
+    /**
+     * Finds the item with the given ID
+     * @param itemId The ID to look up
+     * @return A new item holding the stored values, or null if not found
+     */
+    public InventoryItem get(int itemId) {
+        int row = findRow(itemId);
+        return row < 0 ? null : readRow(row);
+    }
+
+    /**
+     * Checks if an item with the given ID is stored
+     * @param itemId The ID to look up
+     * @return true if the ID is stored
+     */
+    public boolean contains(int itemId) {
+        return findRow(itemId) >= 0;
+    }
+
+    /**
+     * Stores an item, replacing any item with the same ID
+     * @param item The item to store; later changes to it are not reflected
+     * @return true if an item with the same ID was replaced
+     */
+    public boolean put(InventoryItem item) {
+        int row = findRow(item.getItemId());
+        boolean replaced = row >= 0;
+        if (replaced) {
+            arenaLive -= rowChunk(row).getInt(rowOffset(row) + NAME_LENGTH);
+        } else {
+            row = allocateRow();
+            insertIndex(item.getItemId(), row);
+            size++;
+        }
+        writeRow(row, item);
+        compactArenaIfNeeded();
+        return replaced;
+    }
+
+    /**
+     * Removes the item with the given ID
+     * @param itemId The ID to remove
+     * @return true if the item existed
+     */
+    public boolean remove(int itemId) {
+        int row = removeIndex(itemId);
+        if (row < 0) {
+            return false;
+        }
+        ByteBuffer chunk = rowChunk(row);
+        int offset = rowOffset(row);
+        arenaLive -= chunk.getInt(offset + NAME_LENGTH);
+        chunk.putInt(offset + STATE, 0);
+        chunk.putInt(offset + QUANTITY, freeRow);
+        freeRow = row;
+        size--;
+        compactArenaIfNeeded();
+        return true;
+    }
+
+    /**
+     * Moves every item with an ID above the given one down by one ID,
+     * as after a delete without stable IDs
+     * @param itemId The ID of the deleted item
+     */
+    public void shiftIdsDown(int itemId) {
+        int capacity = index.capacity() / 8;
+        allocateIndex(capacity);
+        for (int row = 0; row < rowCount; row++) {
+            ByteBuffer chunk = rowChunk(row);
+            int offset = rowOffset(row);
+            if (chunk.getInt(offset + STATE) == 1) {
+                int id = chunk.getInt(offset + ID);
+                if (id > itemId) {
+                    id--;
+                    chunk.putInt(offset + ID, id);
+                }
+                insertIndex(id, row);
+            }
+        }
+    }
+
+    /**
+     * Returns the IDs of all stored items in ascending order
+     * @return The IDs, 4 bytes per item on the heap
+     */
+    public int[] sortedIds() {
+        int[] ids = new int[size];
+        int count = 0;
+        for (int row = 0; row < rowCount; row++) {
+            ByteBuffer chunk = rowChunk(row);
+            int offset = rowOffset(row);
+            if (chunk.getInt(offset + STATE) == 1) {
+                ids[count++] = chunk.getInt(offset + ID);
+            }
+        }
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    /**
+     * Passes every stored item to a consumer in ascending ID order
+     * @param consumer The consumer to process each item
+     */
+    public void scan(Consumer<InventoryItem> consumer) {
+        for (int itemId : sortedIds()) {
+            consumer.accept(get(itemId));
+        }
+    }
+
+    /**
+     * Passes every stored item to a consumer in storage order, without sorting
+     * @param consumer The consumer to process each item
+     */
+    public void forEach(Consumer<InventoryItem> consumer) {
+        for (int row = 0; row < rowCount; row++) {
+            if (rowChunk(row).getInt(rowOffset(row) + STATE) == 1) {
+                consumer.accept(readRow(row));
+            }
+        }
+    }
+
+    /**
+     * Sums quantity times price over all items, reading the rows in place
+     * @return The total value of the stock
+     */
+    public double totalValue() {
+        double total = 0;
+        for (int row = 0; row < rowCount; row++) {
+            ByteBuffer chunk = rowChunk(row);
+            int offset = rowOffset(row);
+            if (chunk.getInt(offset + STATE) == 1) {
+                total += chunk.getInt(offset + QUANTITY) * chunk.getDouble(offset + PRICE);
+            }
+        }
+        return total;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the memory allocated outside the heap
+     * @return The bytes of all row chunks, arena chunks and the index
+     */
+    public long getOffHeapSize() {
+        long bytes = index.capacity();
+        for (ByteBuffer chunk : rowChunks) {
+            bytes += chunk == null ? 0 : chunk.capacity();
+        }
+        for (int i = 0; i < arenaChunkCount; i++) {
+            bytes += arenaChunks[i].capacity();
+        }
+        return bytes;
+    }
+
+    /**
+     * Removes all items
+     * The buffers are released once the garbage collector reclaims them
+     */
+    public void clear() {
+        rowChunks = new ByteBuffer[4];
+        rowCount = 0;
+        freeRow = -1;
+        size = 0;
+        arenaChunks = new ByteBuffer[4];
+        arenaChunkCount = 0;
+        arenaUsed = 0;
+        arenaLive = 0;
+        allocateIndex(DEFAULT_INDEX_CAPACITY);
+        dictionary.clear();
+    }
+
+    // Rows
+
+    private ByteBuffer rowChunk(int row) {
+        return rowChunks[row / ROWS_PER_CHUNK];
+    }
+
+    private static int rowOffset(int row) {
+        return (row % ROWS_PER_CHUNK) * ROW_SIZE;
+    }
+
+    private int allocateRow() {
+        if (freeRow >= 0) {
+            int row = freeRow;
+            freeRow = rowChunk(row).getInt(rowOffset(row) + QUANTITY);
+            return row;
+        }
+        int chunkNumber = rowCount / ROWS_PER_CHUNK;
+        if (chunkNumber == rowChunks.length) {
+            rowChunks = Arrays.copyOf(rowChunks, rowChunks.length * 2);
+        }
+        if (rowChunks[chunkNumber] == null) {
+            rowChunks[chunkNumber] = allocate(ROWS_PER_CHUNK * ROW_SIZE);
+        }
+        return rowCount++;
+    }
+
+    private void writeRow(int row, InventoryItem item) {
+        byte[] name = item.getName().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer chunk = rowChunk(row);
+        int offset = rowOffset(row);
+        chunk.putInt(offset + ID, item.getItemId());
+        chunk.putInt(offset + QUANTITY, item.getQuantity());
+        chunk.putDouble(offset + PRICE, item.getPrice());
+        chunk.putLong(offset + NAME_REF, appendName(name));
+        chunk.putInt(offset + NAME_LENGTH, name.length);
+        chunk.putInt(offset + CATEGORY, dictionary.add(item.getCategory()));
+        chunk.putInt(offset + SUPPLIER, dictionary.add(item.getSupplier()));
+        chunk.putInt(offset + STATE, 1);
+    }
+
+    private InventoryItem readRow(int row) {
+        ByteBuffer chunk = rowChunk(row);
+        int offset = rowOffset(row);
+        long nameRef = chunk.getLong(offset + NAME_REF);
+        byte[] name = new byte[chunk.getInt(offset + NAME_LENGTH)];
+        arenaChunks[(int) (nameRef >>> 32)].get((int) nameRef, name);
+        return new InventoryItem(chunk.getInt(offset + ID),
+                new String(name, StandardCharsets.UTF_8),
+                dictionary.get(chunk.getInt(offset + CATEGORY)),
+                chunk.getInt(offset + QUANTITY),
+                chunk.getDouble(offset + PRICE),
+                dictionary.get(chunk.getInt(offset + SUPPLIER)));
+    }
+
+    // String arena
+
+    private long appendName(byte[] name) {
+        ByteBuffer chunk = arenaChunkCount == 0 ? null : arenaChunks[arenaChunkCount - 1];
+        if (chunk == null || chunk.remaining() < name.length) {
+            // Names longer than a chunk get a chunk of their own
+            chunk = allocate(Math.max(ARENA_CHUNK_SIZE, name.length));
+            if (arenaChunkCount == arenaChunks.length) {
+                arenaChunks = Arrays.copyOf(arenaChunks, arenaChunks.length * 2);
+            }
+            arenaChunks[arenaChunkCount++] = chunk;
+        }
+        long ref = ((long) (arenaChunkCount - 1) << 32) | chunk.position();
+        chunk.put(name);
+        arenaUsed += name.length;
+        arenaLive += name.length;
+        return ref;
+    }
+
+    // Rewrites the arena with only the live names once most of it is garbage
+    private void compactArenaIfNeeded() {
+        if (arenaUsed <= MIN_COMPACT_ARENA_SIZE || arenaUsed - arenaLive <= arenaLive) {
+            return;
+        }
+        ByteBuffer[] oldChunks = arenaChunks;
+        arenaChunks = new ByteBuffer[4];
+        arenaChunkCount = 0;
+        arenaUsed = 0;
+        arenaLive = 0;
+        for (int row = 0; row < rowCount; row++) {
+            ByteBuffer chunk = rowChunk(row);
+            int offset = rowOffset(row);
+            if (chunk.getInt(offset + STATE) == 1) {
+                long nameRef = chunk.getLong(offset + NAME_REF);
+                byte[] name = new byte[chunk.getInt(offset + NAME_LENGTH)];
+                oldChunks[(int) (nameRef >>> 32)].get((int) nameRef, name);
+                chunk.putLong(offset + NAME_REF, appendName(name));
+            }
+        }
+    }
+
+    // Hash index
+
+    private void allocateIndex(int capacity) {
+        index = allocate(capacity * 8);
+        indexShift = 32 - Integer.numberOfTrailingZeros(capacity);
+    }
+
+    // Fibonacci hashing, as in IdIndex
+    private int slot(int itemId) {
+        return (itemId * 0x9E3779B9) >>> indexShift;
+    }
+
+    private int findRow(int itemId) {
+        int mask = index.capacity() / 8 - 1;
+        int slot = slot(itemId);
+        int row;
+        while ((row = index.getInt(slot * 8 + 4)) != 0) {
+            if (index.getInt(slot * 8) == itemId) {
+                return row - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void insertIndex(int itemId, int row) {
+        int capacity = index.capacity() / 8;
+        if ((size + 1) * 2 > capacity) {
+            if (capacity == MAX_INDEX_CAPACITY) {
+                throw new IllegalStateException("Off-heap store is full: " + size + " items");
+            }
+            resizeIndex(capacity * 2);
+        }
+        int mask = index.capacity() / 8 - 1;
+        int slot = slot(itemId);
+        while (index.getInt(slot * 8 + 4) != 0) {
+            slot = (slot + 1) & mask;
+        }
+        index.putInt(slot * 8, itemId);
+        index.putInt(slot * 8 + 4, row + 1);
+    }
+
+    // Returns the row of the removed ID, or -1; later entries of the run are shifted back as in IdIndex
+    private int removeIndex(int itemId) {
+        int mask = index.capacity() / 8 - 1;
+        int slot = slot(itemId);
+        int row;
+        while ((row = index.getInt(slot * 8 + 4)) != 0 && index.getInt(slot * 8) != itemId) {
+            slot = (slot + 1) & mask;
+        }
+        if (row == 0) {
+            return -1;
+        }
+
+        int gap = slot;
+        int next = (gap + 1) & mask;
+        while (index.getInt(next * 8 + 4) != 0) {
+            int home = slot(index.getInt(next * 8));
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                index.putLong(gap * 8, index.getLong(next * 8));
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        index.putLong(gap * 8, 0);
+        return row - 1;
+    }
+
+    private void resizeIndex(int capacity) {
+        ByteBuffer old = index;
+        allocateIndex(capacity);
+        int mask = capacity - 1;
+        for (int i = 0; i < old.capacity(); i += 8) {
+            if (old.getInt(i + 4) != 0) {
+                int slot = slot(old.getInt(i));
+                while (index.getInt(slot * 8 + 4) != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                index.putLong(slot * 8, old.getLong(i));
+            }
+        }
+    }
+
+    private static ByteBuffer allocate(int bytes) {
+        return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+    }
+}
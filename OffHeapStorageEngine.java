@@ -0,0 +1,125 @@
+package src;
+
+import src.datastructures.BinarySearchTree;
+import src.datastructures.CustomArrayList;
+import src.datastructures.OffHeapItemStore;
+
+/**
+ * Keeps all items in memory outside the Java heap (see OffHeapItemStore)
+ * Like InMemoryStorageEngine nothing is written to disk, so all items are
+ * lost when the process exits; it is not a persistent engine. The stored
+ * items add no objects for the garbage collector to trace. get, openCursor
+ * and scan read single rows; only load builds the whole item tree on the heap.
+ * InventoryManager loads that tree and keeps it, so behind a manager the items
+ * are held twice and the heap is not reduced. The engine saves heap only
+ * for code that reads through the engine itself, and serves as a cache or a
+ * benchmark of the off-heap layout.
+ */
+public class OffHeapStorageEngine implements StorageEngine {
+
+    // Guarded by this
+    private final OffHeapItemStore stored = new OffHeapItemStore();
+    private final IdAllocator idAllocator = new IdAllocator(null);
+    // Incremented on every change
+    private long stamp;
+
+    @Override
+    public synchronized BinarySearchTree load() {
+        BinarySearchTree.Builder items = new BinarySearchTree.Builder();
+        stored.scan(items::add);
+        return items.build();
+    }
+
+    @Override
+    public synchronized InventoryItem get(int itemId) {
+        return stored.get(itemId);
+    }
+
+    /**
+     * Opens a cursor over the IDs stored when it was opened, reading each item when it is reached
+     * Items deleted in the meantime are skipped; items added in the meantime are not seen
+     * @return The cursor
+     */
+    @Override
+    public ItemCursor openCursor() {
+        int[] ids;
+        synchronized (this) {
+            ids = stored.sortedIds();
+        }
+        return new ItemCursor.Lookahead() {
+            private int next;
+
+            @Override
+            protected InventoryItem fetch() {
+                synchronized (OffHeapStorageEngine.this) {
+                    while (next < ids.length) {
+                        InventoryItem item = stored.get(ids[next++]);
+                        if (item != null) {
+                            return item;
+                        }
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            protected void release() {
+                // Nothing to release
+            }
+        };
+    }
+
+    @Override
+    public synchronized boolean put(BinarySearchTree items, InventoryItem item) {
+        stored.put(item);
+        stamp++;
+        return true;
+    }
+
+    @Override
+    public synchronized boolean putAll(BinarySearchTree items, CustomArrayList<InventoryItem> added) {
+        for (int i = 0; i < added.size(); i++) {
+            stored.put(added.get(i));
+        }
+        stamp++;
+        return true;
+    }
+
+    @Override
+    public synchronized boolean delete(BinarySearchTree items, InventoryItem item) {
+        // Mirror the caller's delete, including renumbering unless IDs are stable
+        if (stored.remove(item.getItemId()) && !FileManager.isStableIds()) {
+            stored.shiftIdsDown(item.getItemId());
+        }
+        stamp++;
+        return true;
+    }
+
+    @Override
+    public void flush(BinarySearchTree items) {
+        // Nothing to compact; the store reclaims its string arena as it goes
+    }
+
+    @Override
+    public synchronized long getStamp() {
+        return stamp;
+    }
+
+    @Override
+    public IdAllocator getIdAllocator() {
+        return idAllocator;
+    }
+
+    /**
+     * Returns the memory the items take outside the heap
+     * @return The size in bytes
+     */
+    public synchronized long getOffHeapSize() {
+        return stored.getOffHeapSize();
+    }
+
+    @Override
+    public synchronized void close() {
+        stored.clear();
+    }
+}
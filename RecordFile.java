@@ -0,0 +1,583 @@
+package src;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+import src.datastructures.BinarySearchTree;
+
+/**
+ * Random-access file of fixed-size item records addressed by item ID
+ * Layout (big-endian):
+ *   header:   one record holding magic "INVR" (int), version (int),
+ *             slot size (int) and record capacity (int)
+ *   records:  capacity records of two SLOT_SIZE slots each; item ID n lives
+ *             at offset n * RECORD_SIZE, so a point read or update is one
+ *             positional read or write that never crosses a page
+ *   overflow: strings too long for their slot, appended after the records
+ * A slot holds a state byte (free, live or deleted), a CRC32C, then a
+ * sequence number (int), itemId (int), quantity (int), price (double) and
+ * the name, category and supplier. Each string is stored inline as its
+ * length (short) and UTF-8 bytes, or, if it does not fit, as -1 (short), its
+ * overflow offset (long) and length (int). The CRC32C covers the slot after
+ * the checksum and any overflow bytes.
+ *
+ * The two slots of a record are copies: the one with the higher sequence
+ * number and an intact checksum is current. An update or delete writes the
+ * other slot with the next sequence number, so the current copy is never
+ * overwritten, and a torn write leaves the previous version readable; the
+ * write takes effect once the new slot is complete. Records of IDs that were
+ * never written read as zeros, i.e. free, and stay sparse on file systems
+ * that support holes. Overflow bytes of replaced records are garbage until
+ * the file is rewritten.
+ */
+public class RecordFile implements Closeable {
+
+    private static final int MAGIC = 0x494E5652; // "INVR"
+    private static final int VERSION = 2;
+    static final int SLOT_SIZE = 128;
+    // A record is the two copies of an item
+    static final int RECORD_SIZE = 2 * SLOT_SIZE;
+
+    private static final byte FREE = 0;
+    private static final byte LIVE = 1;
+    private static final byte DELETED = 2;
+
+    // Slot field offsets
+    private static final int CHECKSUM_OFFSET = 1;
+    private static final int SEQUENCE_OFFSET = 5;
+    private static final int ID_OFFSET = 9;
+    private static final int QUANTITY_OFFSET = 13;
+    private static final int PRICE_OFFSET = 17;
+    private static final int STRINGS_OFFSET = 25;
+    private static final int OVERFLOW_REF_SIZE = 2 + 8 + 4;
+    private static final short OVERFLOW = -1;
+
+    // New files leave room to grow by half before they must be rewritten
+    private static final int MIN_CAPACITY = 1024;
+
+    // Records read per call when scanning
+    private static final int SCAN_RECORDS = 256;
+
+    private final File file;
+    private final FileChannel channel;
+    private final int capacity;
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+    private final ByteBuffer slot = ByteBuffer.allocate(SLOT_SIZE);
+    private final CRC32C crc = new CRC32C();
+    // Strings of each copy of the record checked last
+    private final String[][] copyStrings = new String[2][3];
+
+    /**
+     * Opens an existing record file for reading and writing
+     * @param file The file
+     * @throws IOException If the file cannot be opened or is not a record file
+     */
+    public RecordFile(File file) throws IOException {
+        this(file, true);
+    }
+
+    private RecordFile(File file, boolean writable) throws IOException {
+        this.file = file;
+        this.channel = writable
+                ? FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(16);
+            readFully(header, 0);
+            header.flip();
+            if (header.remaining() < 16 || header.getInt() != MAGIC) {
+                throw new IOException("Not an inventory record file: " + file.getPath());
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported record file version " + version + ": " + file.getPath());
+            }
+            if (header.getInt() != SLOT_SIZE) {
+                throw new IOException("Unsupported slot size: " + file.getPath());
+            }
+            this.capacity = header.getInt();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes all items to a new record file, replacing its contents
+     * @param file The file to write
+     * @param items The items to write
+     * @throws IOException If writing fails or an item ID is not positive
+     */
+    public static void write(File file, BinarySearchTree items) throws IOException {
+        InventoryItem highest = items.findMax();
+        int maxId = highest == null ? 0 : highest.getItemId();
+        int capacity = (int) Math.min(Integer.MAX_VALUE / RECORD_SIZE - 1, Math.max(MIN_CAPACITY, maxId + (long) maxId / 2));
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(16);
+            header.putInt(MAGIC).putInt(VERSION).putInt(SLOT_SIZE).putInt(capacity).flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+
+            PositionalWriter slots = new PositionalWriter(channel, RECORD_SIZE);
+            PositionalWriter overflow = new PositionalWriter(channel, overflowStart(capacity));
+            ByteBuffer slot = ByteBuffer.allocate(SLOT_SIZE);
+            CRC32C crc = new CRC32C();
+            for (InventoryItem item : items) {
+                int itemId = item.getItemId();
+                if (itemId < 1 || itemId > capacity) {
+                    throw new IOException("Item ID out of range for a record file: " + itemId);
+                }
+                // The first copy of each record; the second stays free
+                encode(slot, LIVE, 1, item, crc, overflow::append);
+                slots.seek(recordOffset(itemId));
+                slots.write(slot.array(), 0, SLOT_SIZE);
+            }
+            slots.flush();
+            overflow.flush();
+        }
+    }
+
+    /**
+     * Reads all items from a record file
+     * Corrupt records are reported and skipped
+     * @param file The file to read
+     * @return The items
+     * @throws IOException If the file cannot be read or is not a record file
+     */
+    public static BinarySearchTree read(File file) throws IOException {
+        // Slots are in ID order, so the tree is built in one pass
+        BinarySearchTree.Builder items = new BinarySearchTree.Builder();
+        try (ItemCursor cursor = openCursor(file)) {
+            cursor.forEachRemaining(items::add);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return items.build();
+    }
+
+    /**
+     * Opens a cursor that reads the live records of a file in ID order
+     * Corrupt records are reported and skipped
+     * @param file The file to read
+     * @return The cursor
+     * @throws IOException If the file cannot be opened or is not a record file
+     */
+    public static ItemCursor openCursor(File file) throws IOException {
+        RecordFile records = new RecordFile(file, false);
+        return new ItemCursor.Lookahead() {
+            private final ByteBuffer chunk = ByteBuffer.allocate(SCAN_RECORDS * RECORD_SIZE).limit(0);
+            private final long end = Math.min(records.channel.size(), overflowStart(records.capacity));
+            // File offset of the first byte of the chunk
+            private long chunkStart = RECORD_SIZE;
+
+            @Override
+            protected InventoryItem fetch() {
+                try {
+                    while (true) {
+                        if (chunk.remaining() < SLOT_SIZE) {
+                            chunkStart += chunk.limit();
+                            if (end - chunkStart < SLOT_SIZE) {
+                                return null;
+                            }
+                            chunk.clear();
+                            chunk.limit((int) Math.min(chunk.capacity(), end - chunkStart));
+                            records.readFully(chunk, chunkStart);
+                            chunk.flip();
+                        }
+                        // The file may end after the first copy of the last record
+                        int offset = chunk.position();
+                        int length = Math.min(RECORD_SIZE, chunk.remaining());
+                        chunk.position(offset + length);
+                        InventoryItem item = records.decode(chunk.slice(offset, length),
+                                (int) ((chunkStart + offset) / RECORD_SIZE));
+                        if (item != null) {
+                            return item;
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @Override
+            protected void release() {
+                try {
+                    records.close();
+                } catch (IOException e) {
+                    System.out.println("Error closing " + file.getPath() + ": " + e.getMessage());
+                }
+            }
+        };
+    }
+
+    /**
+     * Reads a single item with one positional read of its record
+     * @param itemId The ID of the item
+     * @return The item, or null if it is free, deleted, corrupt or beyond the capacity
+     * @throws IOException If reading fails
+     */
+    public InventoryItem read(int itemId) throws IOException {
+        if (!readRecord(itemId)) {
+            return null;
+        }
+        return decode(record, itemId);
+    }
+
+    /**
+     * Writes an item into the spare slot of its record, appending strings that
+     * do not fit to the overflow area; the current copy is left untouched
+     * Call force() to make the write durable
+     * @param item The item to write
+     * @return false if the item ID is beyond the capacity, so the file must be rewritten
+     * @throws IOException If writing fails
+     */
+    public boolean write(InventoryItem item) throws IOException {
+        int itemId = item.getItemId();
+        if (itemId < 1 || itemId > capacity) {
+            return false;
+        }
+        readRecord(itemId);
+        int current = currentCopy(record, itemId, false);
+        int sequence = current < 0 ? 1 : record.getInt(current * SLOT_SIZE + SEQUENCE_OFFSET) + 1;
+
+        // Overflow goes after the records, or after earlier overflow
+        long[] overflowEnd = {Math.max(channel.size(), overflowStart(capacity))};
+        encode(slot, LIVE, sequence, item, crc, bytes -> {
+            long offset = overflowEnd[0];
+            writeFully(ByteBuffer.wrap(bytes), offset);
+            overflowEnd[0] += bytes.length;
+            return offset;
+        });
+        writeFully(slot, spareSlotOffset(itemId, current));
+        return true;
+    }
+
+    /**
+     * Deletes an item by writing a deleted copy into the spare slot of its record
+     * Call force() to make the delete durable
+     * @param itemId The ID of the item
+     * @throws IOException If writing fails
+     */
+    public void clear(int itemId) throws IOException {
+        if (!readRecord(itemId)) {
+            return;
+        }
+        int current = currentCopy(record, itemId, false);
+        if (current < 0 || record.get(current * SLOT_SIZE) == DELETED) {
+            return;
+        }
+        int sequence = record.getInt(current * SLOT_SIZE + SEQUENCE_OFFSET) + 1;
+        encode(slot, DELETED, sequence, new InventoryItem(itemId, "", "", 0, 0, ""), crc, bytes -> 0);
+        writeFully(slot, spareSlotOffset(itemId, current));
+    }
+
+    // Reads the record of an item into the record buffer; false if it is beyond the capacity or the file
+    private boolean readRecord(int itemId) throws IOException {
+        record.clear();
+        if (itemId < 1 || itemId > capacity) {
+            record.limit(0);
+            return false;
+        }
+        readFully(record, recordOffset(itemId));
+        record.flip();
+        // Never written if the file ends before it
+        return record.remaining() >= SLOT_SIZE;
+    }
+
+    // The slot to write the next copy to: the one that is not current
+    private static long spareSlotOffset(int itemId, int current) {
+        return recordOffset(itemId) + (current == 0 ? SLOT_SIZE : 0);
+    }
+
+    /**
+     * Forces written records to disk
+     * @throws IOException If forcing fails
+     */
+    public void force() throws IOException {
+        channel.force(false);
+    }
+
+    /**
+     * Returns the size of the overflow area, including garbage left by replaced records
+     * @return The size in bytes
+     * @throws IOException If the file size cannot be read
+     */
+    public long getOverflowSize() throws IOException {
+        return Math.max(0, channel.size() - overflowStart(capacity));
+    }
+
+    /**
+     * Returns the number of bytes an item stores in the overflow area
+     * @param item The item
+     * @return The size in bytes, 0 if all its strings fit its slot
+     */
+    public static long overflowSize(InventoryItem item) {
+        long[] size = {0};
+        try {
+            encode(ByteBuffer.allocate(SLOT_SIZE), LIVE, 0, item, new CRC32C(), bytes -> {
+                size[0] += bytes.length;
+                return 0;
+            });
+        } catch (IOException e) {
+            // The sink does no I/O
+        }
+        return size[0];
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Receives strings that do not fit their slot
+     */
+    private interface OverflowSink {
+        /**
+         * @param bytes The UTF-8 bytes of the string
+         * @return The offset the bytes were stored at
+         * @throws IOException If writing fails
+         */
+        long append(byte[] bytes) throws IOException;
+    }
+
+    /**
+     * Encodes an item into a slot buffer, ready to write
+     * Strings are kept inline in field order while they fit, leaving room for
+     * the overflow references of the strings after them
+     */
+    private static void encode(ByteBuffer slot, byte state, int sequence, InventoryItem item, CRC32C crc,
+                               OverflowSink overflow) throws IOException {
+        Arrays.fill(slot.array(), (byte) 0);
+        slot.clear();
+        slot.put(0, state);
+        slot.putInt(SEQUENCE_OFFSET, sequence);
+        slot.putInt(ID_OFFSET, item.getItemId());
+        slot.putInt(QUANTITY_OFFSET, item.getQuantity());
+        slot.putDouble(PRICE_OFFSET, item.getPrice());
+
+        byte[][] strings = {utf8(item.getName()), utf8(item.getCategory()), utf8(item.getSupplier())};
+        crc.reset();
+        int position = STRINGS_OFFSET;
+        byte[][] spilled = new byte[strings.length][];
+        for (int i = 0; i < strings.length; i++) {
+            byte[] bytes = strings[i];
+            // Keep room for the references of the strings still to come
+            int room = SLOT_SIZE - position - (strings.length - 1 - i) * OVERFLOW_REF_SIZE;
+            if (2 + bytes.length <= room) {
+                slot.putShort(position, (short) bytes.length);
+                slot.put(position + 2, bytes);
+                position += 2 + bytes.length;
+            } else {
+                slot.putShort(position, OVERFLOW);
+                slot.putLong(position + 2, overflow.append(bytes));
+                slot.putInt(position + 10, bytes.length);
+                position += OVERFLOW_REF_SIZE;
+                spilled[i] = bytes;
+            }
+        }
+
+        crc.update(slot.array(), SEQUENCE_OFFSET, SLOT_SIZE - SEQUENCE_OFFSET);
+        for (byte[] bytes : spilled) {
+            if (bytes != null) {
+                crc.update(bytes, 0, bytes.length);
+            }
+        }
+        slot.putInt(CHECKSUM_OFFSET, (int) crc.getValue());
+        slot.limit(SLOT_SIZE);
+    }
+
+    /**
+     * Decodes the current copy of a record
+     * @param record The record's bytes from position 0; may hold only the first slot
+     * @param itemId The ID the record is stored under
+     * @return The item, or null if the record is free, deleted or corrupt
+     */
+    private InventoryItem decode(ByteBuffer record, int itemId) throws IOException {
+        int current = currentCopy(record, itemId, true);
+        if (current < 0 || record.get(current * SLOT_SIZE) != LIVE) {
+            return null;
+        }
+        int base = current * SLOT_SIZE;
+        String[] strings = copyStrings[current];
+        return new InventoryItem(itemId, strings[0], strings[1],
+                record.getInt(base + QUANTITY_OFFSET), record.getDouble(base + PRICE_OFFSET), strings[2]);
+    }
+
+    /**
+     * Picks the current copy of a record: the intact slot with the higher sequence number
+     * A slot that fails its checks is a torn write if the other slot is intact,
+     * and is only reported if neither is
+     * @param record The record's bytes from position 0; may hold only the first slot
+     * @param itemId The ID the record is stored under
+     * @param report true to report a record with no intact copy
+     * @return 0 or 1, or -1 if neither slot holds an intact copy
+     */
+    private int currentCopy(ByteBuffer record, int itemId, boolean report) throws IOException {
+        if (record.limit() < SLOT_SIZE) {
+            return -1;
+        }
+        int first = check(record, 0, itemId);
+        int second = record.limit() >= RECORD_SIZE ? check(record, 1, itemId) : FREE;
+        int current;
+        if (first > FREE && second > FREE) {
+            int difference = record.getInt(SLOT_SIZE + SEQUENCE_OFFSET) - record.getInt(SEQUENCE_OFFSET);
+            current = difference > 0 ? 1 : 0;
+        } else if (first > FREE) {
+            current = 0;
+        } else if (second > FREE) {
+            current = 1;
+        } else {
+            current = -1;
+        }
+        if (current < 0 && report && (first < 0 || second < 0)) {
+            reportCorrupt(itemId);
+        }
+        return current;
+    }
+
+    /**
+     * Checks one copy of a record and decodes its strings into copyStrings
+     * @param record The record's bytes from position 0
+     * @param copy The copy, 0 or 1
+     * @param itemId The ID the record is stored under
+     * @return LIVE or DELETED if the copy is intact, FREE if it was never written, -1 if it is corrupt
+     */
+    private int check(ByteBuffer record, int copy, int itemId) throws IOException {
+        ByteBuffer slot = record.slice(copy * SLOT_SIZE, SLOT_SIZE);
+        String[] strings = copyStrings[copy];
+        byte state = slot.get(0);
+        if (state == FREE) {
+            return FREE;
+        }
+        if (state != LIVE && state != DELETED) {
+            return -1;
+        }
+
+        crc.reset();
+        crc.update(slot.duplicate().position(SEQUENCE_OFFSET).limit(SLOT_SIZE));
+        int position = STRINGS_OFFSET;
+        try {
+            for (int i = 0; i < strings.length; i++) {
+                short length = slot.getShort(position);
+                if (length == OVERFLOW) {
+                    long overflowOffset = slot.getLong(position + 2);
+                    int overflowLength = slot.getInt(position + 10);
+                    if (overflowLength < 0 || overflowOffset < overflowStart(capacity)
+                            || overflowOffset + overflowLength > channel.size()) {
+                        return -1;
+                    }
+                    ByteBuffer bytes = ByteBuffer.allocate(overflowLength);
+                    readFully(bytes, overflowOffset);
+                    crc.update(bytes.array(), 0, overflowLength);
+                    strings[i] = new String(bytes.array(), StandardCharsets.UTF_8);
+                    position += OVERFLOW_REF_SIZE;
+                } else {
+                    byte[] bytes = new byte[length];
+                    slot.get(position + 2, bytes);
+                    strings[i] = new String(bytes, StandardCharsets.UTF_8);
+                    position += 2 + length;
+                }
+            }
+        } catch (IndexOutOfBoundsException | NegativeArraySizeException e) {
+            return -1;
+        }
+
+        if ((int) crc.getValue() != slot.getInt(CHECKSUM_OFFSET) || slot.getInt(ID_OFFSET) != itemId) {
+            return -1;
+        }
+        return state;
+    }
+
+    private void reportCorrupt(int itemId) {
+        System.out.println("Skipping corrupt record " + itemId + " of " + file.getPath());
+    }
+
+    private static long recordOffset(int itemId) {
+        return (long) itemId * RECORD_SIZE;
+    }
+
+    // The header takes record 0, so records 1 to capacity hold items
+    private static long overflowStart(int capacity) {
+        return ((long) capacity + 1) * RECORD_SIZE;
+    }
+
+    private static byte[] utf8(String value) {
+        return value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Reads until the buffer is full or the end of the file
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                break;
+            }
+            position += read;
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        buffer = buffer.duplicate();
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * Buffers sequential writes to a channel at an explicit position
+     * Used to write a whole file without a positional write per slot
+     */
+    private static class PositionalWriter {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        // File position of the start of the buffer
+        private long position;
+
+        PositionalWriter(FileChannel channel, long position) {
+            this.channel = channel;
+            this.position = position;
+        }
+
+        // Moves to a position, flushing first unless it continues the buffered bytes
+        void seek(long target) throws IOException {
+            if (target != position + buffer.position()) {
+                flush();
+                position = target;
+            }
+        }
+
+        long append(byte[] bytes) throws IOException {
+            long offset = position + buffer.position();
+            write(bytes, 0, bytes.length);
+            return offset;
+        }
+
+        void write(byte[] bytes, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (!buffer.hasRemaining()) {
+                    flush();
+                }
+                int count = Math.min(length, buffer.remaining());
+                buffer.put(bytes, offset, count);
+                offset += count;
+                length -= count;
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            buffer.clear();
+        }
+    }
+}
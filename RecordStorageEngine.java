@@ -0,0 +1,186 @@
+package src;
+
+import java.io.File;
+import java.io.IOException;
+import src.datastructures.BinarySearchTree;
+
+/**
+ * Stores items in fixed-size records addressed by item ID (see RecordFile)
+ * Reading one item, or saving a create, update or stable-ID delete, touches
+ * only that item's record (and the overflow area for long strings) instead of
+ * reading or rewriting the whole inventory. Each save writes the spare copy
+ * of the record, so a crash mid-write leaves the previous version intact.
+ * The file is rewritten in full, through a temporary file like the other
+ * snapshots, when a delete renumbers the items after it, when a new ID is
+ * beyond the records, and by flush() once garbage in the overflow area
+ * outweighs the live strings there. Renumbering deletes therefore cost
+ * O(n); use this engine with inventory.stableIds=true.
+ */
+public class RecordStorageEngine extends SnapshotStorageEngine {
+
+    // Overflow areas below this size are never worth compacting
+    private static final long MIN_COMPACT_OVERFLOW_SIZE = 64 * 1024;
+
+    // Open while the record file is the current snapshot; guarded by this
+    private RecordFile records;
+
+    /**
+     * Creates an engine storing inventory_data.rec in the given directory
+     * @param directory The data directory
+     */
+    public RecordStorageEngine(String directory) {
+        super(directory);
+    }
+
+    @Override
+    protected File getSnapshotFile() {
+        return new File(getDirectory(), RECORD_FILE);
+    }
+
+    @Override
+    protected void writeSnapshot(File file, BinarySearchTree items) throws IOException {
+        RecordFile.write(file, items);
+    }
+
+    /**
+     * Opens the record file for point access
+     * @return The open file, or null if the data is still in another snapshot format
+     * @throws IOException If the file cannot be opened
+     */
+    private RecordFile openRecords() throws IOException {
+        if (records == null) {
+            File file = getSnapshotFile();
+            if (!file.equals(findSnapshot())) {
+                return null;
+            }
+            records = new RecordFile(file);
+        }
+        return records;
+    }
+
+    /**
+     * Reads a single item with one positional read
+     * @param itemId The ID of the item
+     * @return The item if found, null otherwise
+     */
+    @Override
+    public synchronized InventoryItem get(int itemId) {
+        try {
+            RecordFile file = openRecords();
+            if (file != null) {
+                return file.read(itemId);
+            }
+        } catch (IOException e) {
+            System.out.println("Error reading data: " + e.getMessage());
+            e.printStackTrace();
+            return null;
+        }
+        return super.get(itemId);
+    }
+
+    @Override
+    public synchronized boolean put(BinarySearchTree items, InventoryItem item) {
+        if (!checkWritable()) {
+            return false;
+        }
+        try {
+            RecordFile file = openRecords();
+            if (file != null && file.write(item)) {
+                file.force();
+                System.out.println("Item saved successfully to " + getSnapshotFile().getPath());
+                return true;
+            }
+        } catch (IOException e) {
+            System.out.println("Error saving data: " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        }
+        // No record file yet, or the ID is beyond its slots
+        return super.put(items, item);
+    }
+
+    @Override
+    public synchronized boolean delete(BinarySearchTree items, InventoryItem item) {
+        if (!checkWritable()) {
+            return false;
+        }
+        if (!FileManager.isStableIds()) {
+            // Every later item moves down one record, so the file is replaced as a whole
+            return super.delete(items, item);
+        }
+
+        try {
+            RecordFile file = openRecords();
+            if (file == null) {
+                return super.delete(items, item);
+            }
+            file.clear(item.getItemId());
+            file.force();
+            System.out.println("Item deleted successfully from " + getSnapshotFile().getPath());
+            return true;
+        } catch (IOException e) {
+            System.out.println("Error updating file after deletion: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    /**
+     * Replaces the record file; the open file is closed first, as it would
+     * still refer to the replaced one
+     * @param items All current items
+     * @return true if the file was written
+     */
+    @Override
+    public synchronized boolean writeAll(BinarySearchTree items) {
+        closeRecords();
+        return super.writeAll(items);
+    }
+
+    /**
+     * Rewrites the file once most of its overflow area is garbage from replaced records
+     * @param items All current items, or null to load them from storage
+     */
+    @Override
+    public synchronized void flush(BinarySearchTree items) {
+        long overflowSize;
+        try {
+            RecordFile file = openRecords();
+            if (file == null) {
+                return;
+            }
+            overflowSize = file.getOverflowSize();
+        } catch (IOException e) {
+            System.out.println("Error reading data: " + e.getMessage());
+            return;
+        }
+        if (overflowSize <= MIN_COMPACT_OVERFLOW_SIZE) {
+            return;
+        }
+
+        if (items == null) {
+            items = load();
+        }
+        long[] live = {0};
+        items.inOrderTraversal(item -> live[0] += RecordFile.overflowSize(item));
+        if (overflowSize - live[0] > live[0]) {
+            writeAll(items);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        closeRecords();
+    }
+
+    private void closeRecords() {
+        if (records != null) {
+            try {
+                records.close();
+            } catch (IOException e) {
+                System.out.println("Error closing " + getSnapshotFile().getPath() + ": " + e.getMessage());
+            }
+            records = null;
+        }
+    }
+}
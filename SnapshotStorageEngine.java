@@ -0,0 +1,301 @@
+package src;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import src.datastructures.BinarySearchTree;
+import src.datastructures.CustomArrayList;
+
+/**
+ * Base class for engines that keep all items in a single snapshot file
+ * Every change rewrites the whole snapshot, so the file is always complete.
+ * Subclasses choose the file and its format. A directory may also hold the
+ * snapshot of another format after the format was switched; load() reads
+ * whichever was written last, so no manual conversion is needed.
+ * A snapshot is written to a temporary file, forced to disk and then renamed
+ * over the old one, so a crash during a write leaves the previous snapshot
+ * intact. Temporary files left by such a crash are removed on the next load.
+ * A snapshot that cannot be read at all loads as empty, and every write is
+ * refused until it loads again, so the empty result is never saved over it.
+ */
+public abstract class SnapshotStorageEngine implements StorageEngine {
+
+    static final String CSV_FILE = "inventory_data.csv";
+    static final String BINARY_FILE = "inventory_data.bin";
+    static final String RECORD_FILE = "inventory_data.rec";
+    private static final String[] SNAPSHOT_FILES = {CSV_FILE, BINARY_FILE, RECORD_FILE};
+    private static final String SEQUENCE_FILE = "inventory_data.seq";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File directory;
+    private IdAllocator idAllocator;
+    private boolean recovered;
+    // The snapshot that failed to load, null once it loads; writes are refused meanwhile
+    private volatile File unreadable;
+
+    /**
+     * Creates an engine storing its files in the given directory
+     * @param directory The data directory, created on the first write
+     */
+    protected SnapshotStorageEngine(String directory) {
+        this.directory = new File(directory);
+    }
+
+    /**
+     * Returns the snapshot file written by this engine
+     * @return The snapshot file
+     */
+    protected abstract File getSnapshotFile();
+
+    /**
+     * Writes all items to a snapshot file in this engine's format
+     * @param file The file to write
+     * @param items The items to write
+     * @throws IOException If writing fails
+     */
+    protected abstract void writeSnapshot(File file, BinarySearchTree items) throws IOException;
+
+    /**
+     * Returns the directory holding the data files
+     * @return The data directory
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Ensures the data directory exists
+     */
+    protected void ensureDirectoryExists() {
+        if (!directory.exists()) {
+            directory.mkdirs();
+        }
+    }
+
+    @Override
+    public BinarySearchTree load() {
+        recoverTempFiles();
+        File file = findSnapshot();
+        if (file == null) {
+            unreadable = null;
+            return new BinarySearchTree();
+        }
+
+        try {
+            BinarySearchTree items;
+            if (file.getName().equals(BINARY_FILE)) {
+                items = BinarySnapshot.read(file);
+            } else if (file.getName().equals(RECORD_FILE)) {
+                items = RecordFile.read(file);
+            } else {
+                items = CSVLoader.load(file);
+            }
+            unreadable = null;
+            return items;
+        } catch (FileNotFoundException e) {
+            System.out.println("File not found: " + file.getPath());
+        } catch (Exception e) {
+            System.out.println("Error reading data: " + e.getMessage());
+            e.printStackTrace();
+            refuseWrites(file);
+        }
+        return new BinarySearchTree();
+    }
+
+    // Keeps the next write from replacing a snapshot that could not be read with what little was loaded
+    private void refuseWrites(File file) {
+        unreadable = file;
+        System.out.println("Changes will not be saved until " + file.getPath() + " is repaired or moved away");
+    }
+
+    /**
+     * Checks that the snapshot was read, so writing cannot replace data that failed to load
+     * Writes are refused after a failed load until a later load succeeds, e.g.
+     * once the file was repaired or moved away
+     * @return true if writes may go ahead; false, after printing why, if not
+     */
+    protected boolean checkWritable() {
+        File file = unreadable;
+        if (file == null) {
+            return true;
+        }
+        System.out.println("Not saved: " + file.getPath() + " could not be read; repair or move it away first");
+        return false;
+    }
+
+    /**
+     * Opens a cursor that reads the snapshot lazily
+     * Errors opening the snapshot are reported, give an empty cursor and refuse writes, as in load
+     * @return The cursor
+     */
+    @Override
+    public ItemCursor openCursor() {
+        recoverTempFiles();
+        File file = findSnapshot();
+        if (file != null) {
+            try {
+                if (file.getName().equals(BINARY_FILE)) {
+                    return BinarySnapshot.openCursor(file);
+                }
+                if (file.getName().equals(RECORD_FILE)) {
+                    return RecordFile.openCursor(file);
+                }
+                return CSVLoader.openCursor(file);
+            } catch (FileNotFoundException e) {
+                System.out.println("File not found: " + file.getPath());
+            } catch (IOException e) {
+                System.out.println("Error reading data: " + e.getMessage());
+                e.printStackTrace();
+                refuseWrites(file);
+            }
+        }
+        return ItemCursor.of(new BinarySearchTree().iterator());
+    }
+
+    /**
+     * Picks the snapshot to load
+     * After a format switch several files may exist; the one written last holds
+     * the current data, and a tie goes to this engine's format
+     * @return The snapshot file, or null if there is none
+     */
+    protected File findSnapshot() {
+        File preferred = getSnapshotFile();
+        File newest = preferred.exists() ? preferred : null;
+        for (String name : SNAPSHOT_FILES) {
+            File other = new File(directory, name);
+            if (other.exists() && (newest == null || other.lastModified() > newest.lastModified())) {
+                newest = other;
+            }
+        }
+        return newest;
+    }
+
+    @Override
+    public boolean put(BinarySearchTree items, InventoryItem item) {
+        if (writeAll(items)) {
+            System.out.println("Item saved successfully to " + getSnapshotFile().getPath());
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean putAll(BinarySearchTree items, CustomArrayList<InventoryItem> added) {
+        if (writeAll(items)) {
+            System.out.println(added.size() + " items saved successfully to " + getSnapshotFile().getPath());
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean delete(BinarySearchTree items, InventoryItem item) {
+        if (writeAll(items)) {
+            System.out.println("Item deleted successfully from " + getSnapshotFile().getPath());
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Atomically replaces the snapshot with the given items
+     * The items are written to a temporary file that is forced to disk and
+     * then moved over the snapshot, so readers and crash recovery only ever
+     * see the old or the new snapshot in full. Refused while the current
+     * snapshot cannot be read (see checkWritable)
+     * @param items All current items
+     * @return true if the snapshot was written
+     */
+    public synchronized boolean writeAll(BinarySearchTree items) {
+        if (!checkWritable()) {
+            return false;
+        }
+        ensureDirectoryExists();
+        File target = getSnapshotFile();
+        File temp = new File(target.getPath() + TEMP_SUFFIX);
+        try {
+            writeSnapshot(temp, items);
+            force(temp, false);
+            try {
+                Files.move(temp.toPath(), target.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            forceDirectory();
+            return true;
+        } catch (IOException e) {
+            System.out.println("Error saving data: " + e.getMessage());
+            e.printStackTrace();
+            if (temp.exists() && !temp.delete()) {
+                System.out.println("Could not remove temporary file: " + temp.getPath());
+            }
+        }
+        return false;
+    }
+
+    private static void force(File file, boolean metaData) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            channel.force(metaData);
+        }
+    }
+
+    // Makes the rename itself durable; not every platform can open a directory, so failures are ignored
+    private void forceDirectory() {
+        try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // The rename still happened, it may just not survive a power loss
+        }
+    }
+
+    /**
+     * Removes temporary snapshots left by a write that was interrupted
+     * The rename is the last step of a write, so a leftover temporary file
+     * never holds data the current snapshot (and log) lack
+     */
+    private synchronized void recoverTempFiles() {
+        if (recovered) {
+            return;
+        }
+        recovered = true;
+        for (String name : SNAPSHOT_FILES) {
+            File temp = new File(directory, name + TEMP_SUFFIX);
+            if (temp.exists()) {
+                if (temp.delete()) {
+                    System.out.println("Removed incomplete snapshot left by an interrupted write: " + temp.getPath());
+                } else {
+                    System.out.println("Could not remove incomplete snapshot: " + temp.getPath());
+                }
+            }
+        }
+    }
+
+    @Override
+    public void flush(BinarySearchTree items) {
+        // Every change already rewrote the snapshot
+    }
+
+    @Override
+    public long getStamp() {
+        long stamp = 0;
+        for (String name : SNAPSHOT_FILES) {
+            File file = new File(directory, name);
+            stamp = 31 * stamp + file.lastModified();
+            stamp = 31 * stamp + file.length();
+        }
+        return stamp;
+    }
+
+    @Override
+    public synchronized IdAllocator getIdAllocator() {
+        if (idAllocator == null) {
+            ensureDirectoryExists();
+            idAllocator = new IdAllocator(new File(directory, SEQUENCE_FILE).getPath());
+        }
+        return idAllocator;
+    }
+}
@@ -1,7 +1,6 @@
 package src.datastructures;
 
-import src.InventoryItem;
-import java.util.Comparator;
+import java.util.function.IntBinaryOperator;
 
 /**
  * Custom sorting algorithms implementation
@@ -10,69 +9,40 @@ import java.util.Comparator;
 public class SortingAlgorithms {
 
     /**
-     * Merge sort implementation for CustomArrayList of InventoryItems
-     * @param list The list to sort
-     * @param comparator The comparator to use for comparison
+     * Stable merge sort of an int array, e.g. of row numbers ordered by their columns
+     * @param values The values to sort
+     * @param comparator Compares two values, returning a negative, zero or positive result
      */
-    public static void mergeSort(CustomArrayList list, Comparator<InventoryItem> comparator) {
-        if (list.size() <= 1) {
+    public static void mergeSort(int[] values, IntBinaryOperator comparator) {
+        if (values.length <= 1) {
             return;
         }
-
-        // Create temporary array for merging
-        InventoryItem[] temp = new InventoryItem[list.size()];
-
-        // Call the recursive merge sort
-        mergeSort(list, 0, list.size() - 1, temp, comparator);
+        mergeSort(values, 0, values.length - 1, new int[values.length], comparator);
     }
 
-    private static void mergeSort(CustomArrayList list, int low, int high, InventoryItem[] temp, Comparator<InventoryItem> comparator) {
+    private static void mergeSort(int[] values, int low, int high, int[] temp, IntBinaryOperator comparator) {
         if (low < high) {
             int mid = low + (high - low) / 2;
+            mergeSort(values, low, mid, temp, comparator);
+            mergeSort(values, mid + 1, high, temp, comparator);
 
-            // Sort first and second halves
-            mergeSort(list, low, mid, temp, comparator);
-            mergeSort(list, mid + 1, high, temp, comparator);
-
-            // Merge the sorted halves
-            merge(list, low, mid, high, temp, comparator);
-        }
-    }
-
-    private static void merge(CustomArrayList list, int low, int mid, int high, InventoryItem[] temp, Comparator<InventoryItem> comparator) {
-        // Copy data to temp arrays
-        for (int i = low; i <= high; i++) {
-            temp[i] = list.get(i);
-        }
-
-        int i = low;      // Initial index of first subarray
-        int j = mid + 1;  // Initial index of second subarray
-        int k = low;      // Initial index of merged subarray
-
-        // Merge the temp arrays back into list
-        while (i <= mid && j <= high) {
-            if (comparator.compare(temp[i], temp[j]) <= 0) {
-                list.set(k, temp[i]);
-                i++;
-            } else {
-                list.set(k, temp[j]);
-                j++;
+            // Already in order, nothing to merge
+            if (comparator.applyAsInt(values[mid], values[mid + 1]) <= 0) {
+                return;
+            }
+            System.arraycopy(values, low, temp, low, high - low + 1);
+            int i = low;
+            int j = mid + 1;
+            int k = low;
+            while (i <= mid && j <= high) {
+                values[k++] = comparator.applyAsInt(temp[i], temp[j]) <= 0 ? temp[i++] : temp[j++];
+            }
+            while (i <= mid) {
+                values[k++] = temp[i++];
+            }
+            while (j <= high) {
+                values[k++] = temp[j++];
             }
-            k++;
-        }
-
-        // Copy the remaining elements of left subarray, if any
-        while (i <= mid) {
-            list.set(k, temp[i]);
-            i++;
-            k++;
-        }
-
-        // Copy the remaining elements of right subarray, if any
-        while (j <= high) {
-            list.set(k, temp[j]);
-            j++;
-            k++;
         }
     }
 }
@@ -0,0 +1,151 @@
+package src;
+
+import java.io.Closeable;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import src.datastructures.BinarySearchTree;
+import src.datastructures.CustomArrayList;
+
+/**
+ * Persistence backend for inventory items
+ * Callers such as InventoryManager hold all items in memory, apply each
+ * change there first and then report it to the engine, which either records
+ * just the change or rewrites everything. Errors are printed and signalled
+ * through return values, as elsewhere in the system.
+ */
+public interface StorageEngine extends Closeable {
+
+    /**
+     * Loads all stored items
+     * @return The items, empty if nothing is stored or the data cannot be read
+     */
+    BinarySearchTree load();
+
+    /**
+     * Reads a single stored item
+     * Scans with a cursor, so the other items are never held in memory
+     * @param itemId The ID of the item
+     * @return The item if found, null otherwise
+     */
+    default InventoryItem get(int itemId) {
+        try (ItemCursor cursor = openCursor()) {
+            while (cursor.hasNext()) {
+                InventoryItem item = cursor.next();
+                if (item.getItemId() == itemId) {
+                    return item;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Opens a cursor over the stored items in ascending ID order
+     * Engines backed by files read them lazily; this default loads everything
+     * @return The cursor, to be closed by the caller
+     */
+    default ItemCursor openCursor() {
+        return ItemCursor.of(load().iterator());
+    }
+
+    /**
+     * Streams the stored items in ascending ID order, reading them lazily
+     * Short-circuiting operations such as findFirst or limit stop reading early
+     * @return The stream, to be closed by the caller
+     */
+    default Stream<InventoryItem> stream() {
+        return openCursor().stream();
+    }
+
+    /**
+     * Persists a created or updated item
+     * @param items All current items, already including the change
+     * @param item The created or updated item
+     * @return true if the change was saved
+     */
+    boolean put(BinarySearchTree items, InventoryItem item);
+
+    /**
+     * Starts persisting a created or updated item without waiting for it to become durable
+     * Changes are recorded in the order of the calls, so a caller can serialize
+     * its changes with a lock and wait for the result after releasing it,
+     * letting concurrent writers share a commit. This default saves synchronously.
+     * @param items All current items, already including the change
+     * @param item The created or updated item
+     * @return A future completed with true once the change is saved, false if it could not be saved
+     */
+    default CompletableFuture<Boolean> putAsync(BinarySearchTree items, InventoryItem item) {
+        return CompletableFuture.completedFuture(put(items, item));
+    }
+
+    /**
+     * Persists many created items at once, e.g. from a bulk import
+     * Engines that rewrite all items do so once instead of once per item
+     * @param items All current items, already including the new ones
+     * @param added The new items
+     * @return true if the change was saved
+     */
+    default boolean putAll(BinarySearchTree items, CustomArrayList<InventoryItem> added) {
+        for (int i = 0; i < added.size(); i++) {
+            if (!put(items, added.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Persists a deletion
+     * @param items All remaining items, with the delete already applied via FileManager.removeItem
+     * @param item The deleted item as it was before the delete
+     * @return true if the change was saved
+     */
+    boolean delete(BinarySearchTree items, InventoryItem item);
+
+    /**
+     * Starts persisting a deletion without waiting for it to become durable (see putAsync)
+     * @param items All remaining items, with the delete already applied via FileManager.removeItem
+     * @param item The deleted item as it was before the delete
+     * @return A future completed with true once the change is saved, false if it could not be saved
+     */
+    default CompletableFuture<Boolean> deleteAsync(BinarySearchTree items, InventoryItem item) {
+        return CompletableFuture.completedFuture(delete(items, item));
+    }
+
+    /**
+     * Passes every stored item to a consumer in ascending ID order
+     * @param consumer The consumer to process each item
+     */
+    default void scan(Consumer<InventoryItem> consumer) {
+        try (ItemCursor cursor = openCursor()) {
+            cursor.forEachRemaining(consumer);
+        }
+    }
+
+    /**
+     * Brings the stored data into its most compact form, e.g. by folding a log into a snapshot
+     * @param items All current items, or null to load them from storage
+     */
+    void flush(BinarySearchTree items);
+
+    /**
+     * Returns a value that changes whenever the stored data changes,
+     * so callers caching the items can tell when to reload them
+     * @return The storage stamp
+     */
+    long getStamp();
+
+    /**
+     * Returns the item ID sequence that belongs to the stored data
+     * @return The allocator, shared by all users of this engine
+     */
+    IdAllocator getIdAllocator();
+
+    /**
+     * Releases the engine's resources; changes already reported stay saved
+     */
+    @Override
+    default void close() {
+    }
+}
@@ -0,0 +1,183 @@
+package src.datastructures;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Dictionary of distinct strings, each with a small integer code
+ * Codes are assigned in insertion order starting at 0. Low-cardinality
+ * columns such as category and supplier are stored as codes on disk and
+ * share one canonical String instance per distinct value in memory.
+ * Uses open addressing with linear probing over the codes.
+ * Entries are never removed; clear() starts over.
+ */
+public class StringDictionary implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final int DEFAULT_CAPACITY = 16;
+
+    // Distinct values by code
+    private String[] values;
+    // Hash table of code + 1; 0 marks an empty slot
+    private int[] slots;
+    private int size;
+
+    public StringDictionary() {
+        values = new String[DEFAULT_CAPACITY / 2];
+        slots = new int[DEFAULT_CAPACITY];
+    }
+
+    /**
+     * Returns the code of a value, adding the value if it is new
+     * @param value The value
+     * @return The code
+     */
+    public int add(String value) {
+        int hash = mix(value.hashCode());
+        int slot = findSlot(value, hash);
+        if (slots[slot] != 0) {
+            return slots[slot] - 1;
+        }
+        return insert(slot, value);
+    }
+
+    /**
+     * Returns the canonical instance of a value, adding the value if it is new
+     * @param value The value, may be null
+     * @return The instance held by the dictionary, or null for null
+     */
+    public String intern(String value) {
+        if (value == null) {
+            return null;
+        }
+        return values[add(value)];
+    }
+
+    /**
+     * Returns the canonical instance of a UTF-8 encoded value
+     * A String is only created the first time a value is seen, so repeated
+     * values cost no allocation when reading a file
+     * @param bytes The buffer holding the encoded value
+     * @param offset The start of the value
+     * @param length The number of bytes
+     * @return The instance held by the dictionary
+     */
+    public String intern(byte[] bytes, int offset, int length) {
+        // Hash as String.hashCode would; this matches for ASCII only
+        int h = 0;
+        for (int i = offset; i < offset + length; i++) {
+            byte b = bytes[i];
+            if (b < 0) {
+                return intern(new String(bytes, offset, length, StandardCharsets.UTF_8));
+            }
+            h = 31 * h + b;
+        }
+
+        int hash = mix(h);
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        while (slots[slot] != 0) {
+            String candidate = values[slots[slot] - 1];
+            if (candidate.length() == length && equalsAscii(candidate, bytes, offset)) {
+                return candidate;
+            }
+            slot = (slot + 1) & mask;
+        }
+        String value = new String(bytes, offset, length, StandardCharsets.ISO_8859_1);
+        return values[insert(slot, value)];
+    }
+
+    private static boolean equalsAscii(String value, byte[] bytes, int offset) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) != bytes[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Looks up the code of a value without adding it
+     * @param value The value
+     * @return The code, or -1 if the value is not in the dictionary
+     */
+    public int codeOf(String value) {
+        int slot = findSlot(value, mix(value.hashCode()));
+        return slots[slot] - 1;
+    }
+
+    /**
+     * Returns the value with the given code
+     * @param code The code
+     * @return The value
+     * @throws IndexOutOfBoundsException If no value has the code
+     */
+    public String get(int code) {
+        if (code < 0 || code >= size) {
+            throw new IndexOutOfBoundsException("Code: " + code + ", Size: " + size);
+        }
+        return values[code];
+    }
+
+    /**
+     * Returns the number of distinct values
+     * @return The size
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes all values
+     */
+    public void clear() {
+        values = new String[DEFAULT_CAPACITY / 2];
+        slots = new int[DEFAULT_CAPACITY];
+        size = 0;
+    }
+
+    // Returns the slot holding the value, or the empty slot where it would go
+    private int findSlot(String value, int hash) {
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        while (slots[slot] != 0) {
+            String candidate = values[slots[slot] - 1];
+            if (candidate == value || candidate.equals(value)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private int insert(int slot, String value) {
+        int code = size++;
+        values[code] = value;
+        slots[slot] = code + 1;
+        // Keep the load factor at or below 0.5; values holds half the slot count
+        if (size == values.length) {
+            resize(slots.length * 2);
+        }
+        return code;
+    }
+
+    private void resize(int capacity) {
+        String[] grownValues = new String[capacity / 2];
+        System.arraycopy(values, 0, grownValues, 0, size);
+        values = grownValues;
+
+        slots = new int[capacity];
+        int mask = capacity - 1;
+        for (int code = 0; code < size; code++) {
+            int slot = mix(values[code].hashCode()) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = code + 1;
+        }
+    }
+
+    // Spreads the high bits so similar strings do not cluster in the low slots
+    private static int mix(int h) {
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,509 @@
+package src;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.zip.CRC32C;
+import src.datastructures.BinarySearchTree;
+
+/**
+ * Append-only log of inventory mutations
+ * Each create, update or delete is stored as a single record so that a
+ * change costs one append instead of a rewrite of the whole CSV file.
+ * The CSV file is only rebuilt when the log is checkpointed.
+ *
+ * Appends use group commit: records from all threads are queued, and a
+ * committer thread writes everything queued so far with one write and one
+ * FileChannel.force, then completes the future of every record in that
+ * batch. A record is therefore durable once its append returns, while
+ * concurrent writers share the cost of each fsync. Records that arrive
+ * while a batch is being forced form the next batch; a commit window
+ * (the inventory.groupCommitMillis system property) can additionally hold
+ * each batch open for more records.
+ *
+ * Every record ends with a CRC32C of its fields. Replay stops at a torn last
+ * record left by a crash, and reports and skips a corrupt record anywhere
+ * else, in the same pass. A log file starts with a version record; only a
+ * file without one, written before checksums were added, may hold records
+ * without a checksum, which are then replayed unchecked.
+ */
+public class WriteAheadLog {
+
+    // Record type markers, written as the first field of every log line
+    private static final String PUT_RECORD = "P";
+    private static final String DELETE_RECORD = "D";
+    private static final String TOMBSTONE_RECORD = "T";
+    // First record of every log file with checksummed records
+    private static final String VERSION_RECORD = "V";
+    private static final int VERSION = 2;
+    private static final byte[] VERSION_LINE = (FileManager.formatCheckedLine(new CRC32C(), VERSION_RECORD,
+            Integer.toString(VERSION)) + "\n").getBytes(StandardCharsets.UTF_8);
+
+    // Fields of each record type before the checksum
+    private static final int ITEM_RECORD_FIELDS = 7;
+    private static final int TOMBSTONE_RECORD_FIELDS = 2;
+
+    // Milliseconds the committer waits for more records before writing a batch
+    private static final long COMMIT_WINDOW_MILLIS = Long.getLong("inventory.groupCommitMillis", 0);
+
+    private final File file;
+
+    // Records waiting for the committer, guarded by the queue's lock
+    private final ArrayDeque<PendingRecord> queue = new ArrayDeque<>();
+    private Thread committer;
+    private boolean closed;
+    // Future of the most recently queued record, guarded by the queue's lock
+    private CompletableFuture<Void> lastQueued;
+
+    // Open while records are being appended; guarded by this log's lock
+    private FileChannel channel;
+
+    private static class PendingRecord {
+        final byte[] bytes;
+        final CompletableFuture<Void> durable = new CompletableFuture<>();
+
+        PendingRecord(String record) {
+            this.bytes = (record + "\n").getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Creates a log backed by the given file
+     * @param filePath The path of the log file
+     */
+    public WriteAheadLog(String filePath) {
+        this.file = new File(filePath);
+    }
+
+    /**
+     * Appends a create/update record for the item and waits until it is durable
+     * @param item The item that was created or updated
+     * @throws IOException If the record could not be written
+     */
+    public void appendPut(InventoryItem item) throws IOException {
+        await(appendPutAsync(item));
+    }
+
+    /**
+     * Queues a create/update record for the item
+     * @param item The item that was created or updated
+     * @return A future completed once the record is durable, or completed
+     *         exceptionally with an IOException if it could not be written
+     */
+    public CompletableFuture<Void> appendPutAsync(InventoryItem item) {
+        return submit(FileManager.formatCheckedLine(new CRC32C(), PUT_RECORD, item));
+    }
+
+    /**
+     * Appends a delete record for the item and waits until it is durable
+     * The whole item is recorded so replay can tell whether the delete
+     * was already folded into the CSV file, as IDs shift on every delete
+     * @param item The deleted item
+     * @throws IOException If the record could not be written
+     */
+    public void appendDelete(InventoryItem item) throws IOException {
+        await(appendDeleteAsync(item));
+    }
+
+    /**
+     * Queues a delete record for the item
+     * @param item The deleted item
+     * @return A future completed once the record is durable
+     */
+    public CompletableFuture<Void> appendDeleteAsync(InventoryItem item) {
+        return submit(FileManager.formatCheckedLine(new CRC32C(), DELETE_RECORD, item));
+    }
+
+    /**
+     * Appends a tombstone for an item deleted without renumbering the others
+     * and waits until it is durable
+     * Replaying a tombstone only removes that ID, so it is safe to replay twice
+     * @param itemId The ID of the deleted item
+     * @throws IOException If the record could not be written
+     */
+    public void appendTombstone(int itemId) throws IOException {
+        await(appendTombstoneAsync(itemId));
+    }
+
+    /**
+     * Queues a tombstone for an item deleted without renumbering the others
+     * @param itemId The ID of the deleted item
+     * @return A future completed once the record is durable
+     */
+    public CompletableFuture<Void> appendTombstoneAsync(int itemId) {
+        return submit(FileManager.formatCheckedLine(new CRC32C(), TOMBSTONE_RECORD, Integer.toString(itemId)));
+    }
+
+    /**
+     * Waits until every record queued so far has been written
+     * Batches are committed in order, so this waits for the last queued record
+     * @throws IOException If the last queued record could not be written
+     */
+    public void sync() throws IOException {
+        CompletableFuture<Void> last;
+        synchronized (queue) {
+            last = lastQueued;
+        }
+        if (last != null) {
+            await(last);
+        }
+    }
+
+    private static void await(CompletableFuture<Void> durable) throws IOException {
+        try {
+            durable.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private CompletableFuture<Void> submit(String record) {
+        PendingRecord pending = new PendingRecord(record);
+        synchronized (queue) {
+            if (closed) {
+                pending.durable.completeExceptionally(new IOException("Log is closed: " + file.getPath()));
+                return pending.durable;
+            }
+            queue.add(pending);
+            lastQueued = pending.durable;
+            if (committer == null) {
+                committer = new Thread(this::runCommitter, "inventory-log-commit");
+                committer.setDaemon(true);
+                committer.start();
+            }
+            queue.notifyAll();
+        }
+        return pending.durable;
+    }
+
+    private void runCommitter() {
+        while (true) {
+            PendingRecord[] batch;
+            synchronized (queue) {
+                try {
+                    while (queue.isEmpty() && !closed) {
+                        queue.wait();
+                    }
+                    if (queue.isEmpty()) {
+                        return;
+                    }
+                    if (COMMIT_WINDOW_MILLIS > 0 && !closed) {
+                        // Hold the batch open so more writers can join it
+                        queue.wait(COMMIT_WINDOW_MILLIS);
+                    }
+                } catch (InterruptedException e) {
+                    // Nothing interrupts the committer; if something does, write what is queued and stop
+                    closed = true;
+                }
+                batch = queue.toArray(new PendingRecord[0]);
+                queue.clear();
+            }
+            commit(batch);
+        }
+    }
+
+    /**
+     * Writes a batch of records with one write and one fsync, then completes their futures
+     * @param batch The records in submission order
+     */
+    private void commit(PendingRecord[] batch) {
+        int size = 0;
+        for (PendingRecord pending : batch) {
+            size += pending.bytes.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (PendingRecord pending : batch) {
+            buffer.put(pending.bytes);
+        }
+        buffer.flip();
+
+        IOException failure = null;
+        synchronized (this) {
+            long start = -1;
+            try {
+                if (channel == null) {
+                    channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                            StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                    terminateTornRecord();
+                }
+                start = channel.size();
+                if (start == 0) {
+                    channel.write(ByteBuffer.wrap(VERSION_LINE));
+                }
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(false);
+            } catch (IOException | RuntimeException e) {
+                // Never let the committer die with writers waiting on the batch
+                failure = e instanceof IOException ? (IOException) e : new IOException(e);
+                // Cut off a partly written batch so the next batch does not extend a torn record
+                if (start >= 0) {
+                    try {
+                        channel.truncate(start);
+                    } catch (IOException ignored) {
+                        // Replay stops at the torn record instead
+                    }
+                }
+                closeChannel();
+            }
+        }
+
+        for (PendingRecord pending : batch) {
+            if (failure == null) {
+                pending.durable.complete(null);
+            } else {
+                pending.durable.completeExceptionally(failure);
+            }
+        }
+    }
+
+    // Ends a torn record left by a crash, so the next record does not run into it
+    private void terminateTornRecord() throws IOException {
+        long size = channel.size();
+        if (size == 0) {
+            return;
+        }
+        // An append channel cannot read
+        ByteBuffer last = ByteBuffer.allocate(1);
+        try (FileChannel reader = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            reader.read(last, size - 1);
+        }
+        if (last.get(0) != '\n') {
+            channel.write(ByteBuffer.wrap(new byte[] {'\n'}));
+        }
+    }
+
+    private void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.out.println("Error closing log: " + e.getMessage());
+            }
+            channel = null;
+        }
+    }
+
+    /**
+     * Writes all queued records, then stops the committer and closes the file
+     * Appends made after closing fail
+     */
+    public void close() {
+        Thread thread;
+        synchronized (queue) {
+            closed = true;
+            thread = committer;
+            queue.notifyAll();
+        }
+        if (thread != null) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            closeChannel();
+        }
+    }
+
+    /**
+     * Replays every record in the log on top of the given items
+     * Malformed and corrupt records are reported and skipped; replay stops at a
+     * torn last record left by a crash
+     * @param items The items loaded from the last checkpoint
+     * @return The number of records applied
+     */
+    public int replay(BinarySearchTree items) {
+        int[] applied = new int[1];
+        readRecords(csv -> {
+            String type = csv.getString(0);
+            if (type.equals(PUT_RECORD)) {
+                InventoryItem item = FileManager.readItem(csv, 1);
+                if (item != null) {
+                    items.add(item);
+                    applied[0]++;
+                }
+            } else if (type.equals(DELETE_RECORD)) {
+                InventoryItem deleted = FileManager.readItem(csv, 1);
+                InventoryItem current = deleted == null ? null : items.find(deleted.getItemId());
+                if (current != null && current.getName().equalsIgnoreCase(deleted.getName())) {
+                    FileManager.applyDelete(items, deleted.getItemId());
+                    applied[0]++;
+                }
+            } else {
+                Integer itemId = readTombstone(csv);
+                if (itemId != null) {
+                    items.remove(itemId);
+                    applied[0]++;
+                }
+            }
+            return true;
+        }, true);
+        return applied[0];
+    }
+
+    /**
+     * Collects the net effect of the log without a base snapshot
+     * Lets a snapshot be streamed with the log applied on the fly, holding only
+     * the changed items in memory
+     * @param overlay Receives the changes, in log order
+     */
+    void replayOverlay(LogOverlay overlay) {
+        readRecords(csv -> {
+            String type = csv.getString(0);
+            if (type.equals(PUT_RECORD)) {
+                InventoryItem item = FileManager.readItem(csv, 1);
+                if (item != null) {
+                    overlay.put(item);
+                }
+            } else if (type.equals(DELETE_RECORD)) {
+                InventoryItem deleted = FileManager.readItem(csv, 1);
+                if (deleted != null) {
+                    overlay.delete(deleted);
+                }
+            } else {
+                Integer itemId = readTombstone(csv);
+                if (itemId != null) {
+                    overlay.tombstone(itemId);
+                }
+            }
+            return true;
+        }, false);
+    }
+
+    /**
+     * Receives each intact log record
+     */
+    private interface RecordHandler {
+        /**
+         * @param csv The reader positioned on a record with a known type and an intact checksum
+         * @return false to stop reading
+         */
+        boolean handle(CSVReader csv);
+    }
+
+    /**
+     * Passes every intact record to a handler in log order
+     * A record that fails its checksum is only known to be corrupt once another
+     * record follows it; at the end of the log it is a torn append instead
+     * @param handler The handler
+     * @param report true to print corrupt and torn records
+     * @return false if the handler stopped early
+     */
+    private boolean readRecords(RecordHandler handler, boolean report) {
+        if (!file.exists()) {
+            return true;
+        }
+
+        long failed = 0;
+        // Only logs without a version record may hold records without a checksum
+        boolean checked = false;
+        try (CSVReader csv = new CSVReader(new FileInputStream(file))) {
+            while (csv.readRecord()) {
+                if (!csv.isTerminated()) {
+                    // Torn last record from an interrupted append
+                    failed = csv.getRecordNumber();
+                    break;
+                }
+                if (failed != 0 && report) {
+                    System.out.println("Skipping corrupt log record " + failed + ": checksum mismatch");
+                }
+                failed = 0;
+
+                if (csv.getRecordNumber() == 1 && csv.getString(0).equals(VERSION_RECORD)) {
+                    checked = true;
+                } else if (!isIntact(csv, checked)) {
+                    failed = csv.getRecordNumber();
+                } else if (!handler.handle(csv)) {
+                    return false;
+                }
+            }
+        } catch (FileNotFoundException e) {
+            // Truncated by a checkpoint in the meantime
+        } catch (IOException e) {
+            System.out.println("Error reading log: " + e.getMessage());
+        }
+
+        if (failed != 0 && report) {
+            System.out.println("Ignoring torn log record " + failed + " at the end of " + file.getPath());
+        }
+        return true;
+    }
+
+    /**
+     * Checks that the current record has a known type and the right number of fields,
+     * and that its checksum matches; records written before checksums were added have none
+     * @param csv The reader positioned on a record
+     * @param checked true if the log has a version record, so every record must have a checksum
+     * @return true if the record can be applied
+     */
+    private static boolean isIntact(CSVReader csv, boolean checked) {
+        String type = csv.getString(0);
+        int fields;
+        if (type.equals(PUT_RECORD) || type.equals(DELETE_RECORD)) {
+            fields = ITEM_RECORD_FIELDS;
+        } else if (type.equals(TOMBSTONE_RECORD)) {
+            fields = TOMBSTONE_RECORD_FIELDS;
+        } else {
+            return false;
+        }
+        if (csv.getFieldCount() == fields) {
+            return !checked;
+        }
+        return csv.getFieldCount() == fields + 1 && csv.hasValidChecksum();
+    }
+
+    private static Integer readTombstone(CSVReader csv) {
+        try {
+            return csv.getInt(1);
+        } catch (NumberFormatException e) {
+            System.out.println("Error parsing log record " + csv.getRecordNumber() + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Returns the size of the log in bytes
+     * @return The log size, 0 if the log does not exist
+     */
+    public long length() {
+        return file.length();
+    }
+
+    /**
+     * Checks if the log holds any records
+     * @return true if there are records to replay
+     */
+    public boolean isEmpty() {
+        return length() == 0;
+    }
+
+    /**
+     * Discards all records, called once they are folded into a checkpoint
+     */
+    public synchronized void truncate() {
+        // The next batch reopens the file
+        closeChannel();
+        if (file.exists() && !file.delete()) {
+            System.out.println("Could not remove log file: " + file.getPath());
+        }
+    }
+
+    /**
+     * Returns the path of the log file
+     * @return The log file path
+     */
+    public String getPath() {
+        return file.getPath();
+    }
+}